@@ -30,6 +30,14 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        unitTests.all {
+            // Forward -Dloadtest.* properties, e.g. -Dloadtest.enabled=true, to LocationIngestionLoadTest
+            System.getProperties().stringPropertyNames()
+                .filter { name -> name.startsWith("loadtest.") }
+                .forEach { name -> it.systemProperty(name, System.getProperty(name)) }
+        }
+    }
 }
 
 dependencies {
@@ -0,0 +1,118 @@
+package com.example.cargotrackingapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups location writes into batched commits, so a device sends one request per batch instead
+ * of one per fix.
+ *
+ * A batch is committed once it holds {@code batchSize} documents, or on the first write after it
+ * has been open for {@code flushIntervalMs}. There is no timer, so a partly filled batch waits
+ * for the next write or an explicit {@link #flush()}. A batch size of 1 commits every write as it
+ * comes. Thread-safe.
+ */
+public class BatchingLocationStore implements LocationIngestor.LocationStore {
+
+    public interface BatchStore {
+        // Writes all documents in one request; callbacks line up with documents
+        void addAll(String collection, List<Map<String, Object>> documents,
+                    List<LocationIngestor.WriteCallback> callbacks);
+    }
+
+    public interface Clock {
+        long elapsedMillis();
+    }
+
+    private final BatchStore target;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Clock clock;
+
+    private String collection;
+    private List<Map<String, Object>> documents;
+    private List<LocationIngestor.WriteCallback> callbacks;
+    private long batchOpenedMillis;
+
+    public BatchingLocationStore(BatchStore target, int batchSize, long flushIntervalMs, Clock clock) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.target = target;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.clock = clock;
+        openBatch();
+    }
+
+    @Override
+    public void add(String collection, Map<String, Object> data, LocationIngestor.WriteCallback callback) {
+        String fullCollection = null;
+        List<Map<String, Object>> fullDocuments = null;
+        List<LocationIngestor.WriteCallback> fullCallbacks = null;
+        String readyCollection = null;
+        List<Map<String, Object>> readyDocuments = null;
+        List<LocationIngestor.WriteCallback> readyCallbacks = null;
+
+        synchronized (this) {
+            // A batch only ever targets one collection
+            if (!documents.isEmpty() && !collection.equals(this.collection)) {
+                fullCollection = this.collection;
+                fullDocuments = documents;
+                fullCallbacks = callbacks;
+                openBatch();
+            }
+            long now = clock.elapsedMillis();
+            if (documents.isEmpty()) {
+                batchOpenedMillis = now;
+                this.collection = collection;
+            }
+            documents.add(data);
+            callbacks.add(callback);
+            if (documents.size() >= batchSize || now - batchOpenedMillis >= flushIntervalMs) {
+                readyCollection = this.collection;
+                readyDocuments = documents;
+                readyCallbacks = callbacks;
+                openBatch();
+            }
+        }
+
+        // Commit outside the lock so a slow backend does not block other writers
+        if (fullDocuments != null) {
+            target.addAll(fullCollection, fullDocuments, fullCallbacks);
+        }
+        if (readyDocuments != null) {
+            target.addAll(readyCollection, readyDocuments, readyCallbacks);
+        }
+    }
+
+    /**
+     * Commits any buffered writes right away, e.g. when tracking stops.
+     */
+    public void flush() {
+        String readyCollection;
+        List<Map<String, Object>> readyDocuments;
+        List<LocationIngestor.WriteCallback> readyCallbacks;
+        synchronized (this) {
+            if (documents.isEmpty()) {
+                return;
+            }
+            readyCollection = collection;
+            readyDocuments = documents;
+            readyCallbacks = callbacks;
+            openBatch();
+        }
+        target.addAll(readyCollection, readyDocuments, readyCallbacks);
+    }
+
+    // Writes waiting for their batch to be committed
+    public synchronized int getBufferedWrites() {
+        return documents.size();
+    }
+
+    private void openBatch() {
+        documents = new ArrayList<>(batchSize);
+        callbacks = new ArrayList<>(batchSize);
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.cargotrackingapp;
+
+/**
+ * Memory-bounded store for a tracked route.
+ *
+ * The most recent points are kept at full resolution in a ring buffer. Older points move
+ * through a chain of archive tiers, each keeping every other point it receives from the newer
+ * tier before it, so resolution falls off progressively with age. The oldest tier halves itself
+ * whenever it fills up. All storage is allocated up front from the memory budget, so the track
+ * never grows past it no matter how long the trip runs.
+ */
+public class BoundedTrack {
+
+    // latitude + longitude + timestamp
+    public static final int BYTES_PER_POINT = 8 + 8 + 8;
+
+    public static final int DEFAULT_TIER_COUNT = 4;
+
+    private static final int MIN_CAPACITY = 2;
+
+    private final long memoryBudgetBytes;
+    private final PointRing recent;
+    // Index 0 is the newest archive tier, the last one the oldest
+    private final PointRing[] tiers;
+    // Spacing between kept points in each tier, in original points
+    private final int[] tierStrides;
+    // Counts points offered to each tier to decide which ones to keep
+    private final int[] tierCounters;
+    private int olderCounter = 0;
+    private long droppedPoints = 0;
+    private long compactions = 0;
+
+    public BoundedTrack(long memoryBudgetBytes, float recentFraction) {
+        this(memoryBudgetBytes, recentFraction, DEFAULT_TIER_COUNT);
+    }
+
+    public BoundedTrack(long memoryBudgetBytes, float recentFraction, int tierCount) {
+        if (recentFraction <= 0f || recentFraction >= 1f) {
+            throw new IllegalArgumentException("recentFraction must be between 0 and 1");
+        }
+        if (tierCount < 1) {
+            throw new IllegalArgumentException("tierCount must be at least 1");
+        }
+        long totalPoints = memoryBudgetBytes / BYTES_PER_POINT;
+        if (totalPoints < (tierCount + 1L) * MIN_CAPACITY) {
+            throw new IllegalArgumentException("Memory budget too small: " + memoryBudgetBytes + " bytes");
+        }
+        int recentCapacity = (int) Math.max(MIN_CAPACITY, Math.min(Integer.MAX_VALUE, totalPoints * recentFraction));
+        recentCapacity = (int) Math.min(recentCapacity, totalPoints - (long) tierCount * MIN_CAPACITY);
+        int tierCapacity = (int) Math.min(Integer.MAX_VALUE, (totalPoints - recentCapacity) / tierCount);
+
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.recent = new PointRing(recentCapacity);
+        this.tiers = new PointRing[tierCount];
+        this.tierStrides = new int[tierCount];
+        this.tierCounters = new int[tierCount];
+        for (int i = 0; i < tierCount; i++) {
+            tiers[i] = new PointRing(tierCapacity);
+            tierStrides[i] = 2 << i;
+        }
+    }
+
+    /**
+     * Appends a point newer than everything already stored.
+     */
+    public void add(double latitude, double longitude, long timestamp) {
+        if (recent.isFull()) {
+            pushToTier(0, recent.latitudeAt(0), recent.longitudeAt(0), recent.timestampAt(0));
+            recent.removeFirst();
+        }
+        recent.addLast(latitude, longitude, timestamp);
+    }
+
+    /**
+     * Prepends a point older than everything already stored, e.g. history paged back in from
+     * local storage. Callers should feed pages newest-first. Paged points fill the recent window
+     * and then each tier in turn at that tier's spacing, so a long history gets the same
+     * progressive downsampling as a long trip. Points already stored are never displaced.
+     */
+    public void addOlder(double latitude, double longitude, long timestamp) {
+        if (archiveSize() == 0 && !recent.isFull()) {
+            recent.addFirst(latitude, longitude, timestamp);
+            return;
+        }
+        // Only the oldest tier holding points, or the next older empty one, keeps the order
+        int tier = oldestNonEmptyTier();
+        if (tier < 0 || (tiers[tier].isFull() && tier < tiers.length - 1)) {
+            tier++;
+        }
+        if (olderCounter++ % tierStrides[tier] != 0) {
+            droppedPoints++;
+            return;
+        }
+        if (tiers[tier].isFull()) {
+            compactOldestTier();
+        }
+        tiers[tier].addFirst(latitude, longitude, timestamp);
+    }
+
+    /**
+     * Whether the track has used up its memory budget, so storing older points from now on
+     * costs resolution instead of filling free space.
+     */
+    public boolean isBudgetFilled() {
+        return compactions > 0 || tiers[tiers.length - 1].isFull();
+    }
+
+    public void clear() {
+        recent.clear();
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i].clear();
+            tierStrides[i] = 2 << i;
+            tierCounters[i] = 0;
+        }
+        olderCounter = 0;
+        droppedPoints = 0;
+        compactions = 0;
+    }
+
+    public int size() {
+        return archiveSize() + recent.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Index 0 is the oldest retained point, size() - 1 the newest
+    public double getLatitude(int index) {
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (index < tiers[i].size()) {
+                return tiers[i].latitudeAt(index);
+            }
+            index -= tiers[i].size();
+        }
+        return recent.latitudeAt(index);
+    }
+
+    public double getLongitude(int index) {
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (index < tiers[i].size()) {
+                return tiers[i].longitudeAt(index);
+            }
+            index -= tiers[i].size();
+        }
+        return recent.longitudeAt(index);
+    }
+
+    public long getTimestamp(int index) {
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (index < tiers[i].size()) {
+                return tiers[i].timestampAt(index);
+            }
+            index -= tiers[i].size();
+        }
+        return recent.timestampAt(index);
+    }
+
+    public long getOldestTimestamp() {
+        if (isEmpty()) {
+            throw new IllegalStateException("Track is empty");
+        }
+        return getTimestamp(0);
+    }
+
+    // Metrics
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public long getAllocatedBytes() {
+        long capacity = recent.capacity();
+        for (PointRing tier : tiers) {
+            capacity += tier.capacity();
+        }
+        return capacity * BYTES_PER_POINT;
+    }
+
+    public long getUsedBytes() {
+        return (long) size() * BYTES_PER_POINT;
+    }
+
+    public int getRecentCapacity() {
+        return recent.capacity();
+    }
+
+    public int getTierCount() {
+        return tiers.length;
+    }
+
+    public int getTierSize(int tier) {
+        return tiers[tier].size();
+    }
+
+    public int getTierStride(int tier) {
+        return tierStrides[tier];
+    }
+
+    public long getDroppedPoints() {
+        return droppedPoints;
+    }
+
+    public long getCompactions() {
+        return compactions;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder tierInfo = new StringBuilder();
+        for (int i = 0; i < tiers.length; i++) {
+            if (i > 0) {
+                tierInfo.append(", ");
+            }
+            tierInfo.append(tiers[i].size()).append('/').append(tiers[i].capacity())
+                    .append(" x").append(tierStrides[i]);
+        }
+        return "BoundedTrack{points=" + size()
+                + ", recent=" + recent.size() + "/" + recent.capacity()
+                + ", tiers=[" + tierInfo + "]"
+                + ", dropped=" + droppedPoints
+                + ", compactions=" + compactions
+                + ", used=" + getUsedBytes() + "B"
+                + ", allocated=" + getAllocatedBytes() + "B"
+                + ", budget=" + memoryBudgetBytes + "B}";
+    }
+
+    private int archiveSize() {
+        int size = 0;
+        for (PointRing tier : tiers) {
+            size += tier.size();
+        }
+        return size;
+    }
+
+    // Index of the oldest tier holding any points, or -1 if the archive is empty
+    private int oldestNonEmptyTier() {
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (!tiers[i].isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Offers a point leaving the newer neighbour to the given tier, which keeps just enough of
+    // them to match its own spacing
+    private void pushToTier(int tier, double latitude, double longitude, long timestamp) {
+        int intakeRatio = tierStrides[tier] / (tier == 0 ? 1 : tierStrides[tier - 1]);
+        if (tierCounters[tier]++ % intakeRatio != 0) {
+            droppedPoints++;
+            return;
+        }
+        PointRing ring = tiers[tier];
+        if (ring.isFull()) {
+            if (tier == tiers.length - 1) {
+                compactOldestTier();
+            } else {
+                pushToTier(tier + 1, ring.latitudeAt(0), ring.longitudeAt(0), ring.timestampAt(0));
+                ring.removeFirst();
+            }
+        }
+        ring.addLast(latitude, longitude, timestamp);
+    }
+
+    private void compactOldestTier() {
+        int oldest = tiers.length - 1;
+        int before = tiers[oldest].size();
+        tiers[oldest].keepEveryOther();
+        droppedPoints += before - tiers[oldest].size();
+        if (tierStrides[oldest] < (1 << 30)) {
+            tierStrides[oldest] *= 2;
+        }
+        tierCounters[oldest] = 0;
+        olderCounter = 0;
+        compactions++;
+    }
+
+    /**
+     * Fixed-capacity deque of points backed by primitive arrays.
+     */
+    static class PointRing {
+
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final long[] timestamps;
+        private int head = 0;
+        private int size = 0;
+
+        PointRing(int capacity) {
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            timestamps = new long[capacity];
+        }
+
+        int capacity() {
+            return latitudes.length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean isFull() {
+            return size == latitudes.length;
+        }
+
+        void addLast(double latitude, double longitude, long timestamp) {
+            if (isFull()) {
+                throw new IllegalStateException("PointRing is full");
+            }
+            int slot = physical(size);
+            latitudes[slot] = latitude;
+            longitudes[slot] = longitude;
+            timestamps[slot] = timestamp;
+            size++;
+        }
+
+        void addFirst(double latitude, double longitude, long timestamp) {
+            if (isFull()) {
+                throw new IllegalStateException("PointRing is full");
+            }
+            head = (head - 1 + latitudes.length) % latitudes.length;
+            latitudes[head] = latitude;
+            longitudes[head] = longitude;
+            timestamps[head] = timestamp;
+            size++;
+        }
+
+        void removeFirst() {
+            if (isEmpty()) {
+                throw new IllegalStateException("PointRing is empty");
+            }
+            head = (head + 1) % latitudes.length;
+            size--;
+        }
+
+        // Drops every other point in place, always keeping the newest one
+        void keepEveryOther() {
+            int kept = 0;
+            for (int i = (size - 1) % 2; i < size; i += 2) {
+                int from = physical(i);
+                int to = physical(kept++);
+                latitudes[to] = latitudes[from];
+                longitudes[to] = longitudes[from];
+                timestamps[to] = timestamps[from];
+            }
+            size = kept;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        double latitudeAt(int index) {
+            return latitudes[physical(checkIndex(index))];
+        }
+
+        double longitudeAt(int index) {
+            return longitudes[physical(checkIndex(index))];
+        }
+
+        long timestampAt(int index) {
+            return timestamps[physical(checkIndex(index))];
+        }
+
+        private int checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return index;
+        }
+
+        private int physical(int index) {
+            return (head + index) % latitudes.length;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.example.cargotrackingapp;
+
+/**
+ * Estimates position between GPS fixes from accelerometer, gyroscope and magnetometer samples.
+ *
+ * Heading is integrated from the gyroscope around the gravity axis and slowly pulled towards
+ * the compass, which is calibrated against the GPS course at every fix so the phone can be
+ * mounted any way round in the cab. Speed is held at the last GPS speed and drops to zero while
+ * the accelerometer says the vehicle is standing still. Everything runs on preallocated
+ * primitive buffers, so adding samples and producing estimates never allocates.
+ *
+ * Timestamps are in nanoseconds on the elapsed-realtime clock shared by SensorEvent and
+ * Location. Sensors batched in a hardware FIFO deliver late, so gyroscope and magnetometer
+ * samples taken before the latest fix are discarded rather than applied on top of its course,
+ * and callers should estimate no later than {@link #getSampledUntilNanos()}. Not thread-safe;
+ * feed samples and fixes from one thread.
+ */
+public class DeadReckoning {
+
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    // Estimates stop this long after the last GPS fix
+    public static final long MAX_ESTIMATE_AGE_NANOS = 120 * 1_000_000_000L;
+
+    private static final int DEFAULT_BUFFER_CAPACITY = 512;
+    // Low-pass factor isolating gravity from the accelerometer
+    private static final float GRAVITY_FILTER_ALPHA = 0.9f;
+    // Smoothing of the accelerometer magnitude statistics for motion detection
+    private static final double MOTION_FILTER_ALPHA = 0.05;
+    // Below this variance of |acceleration| in (m/s^2)^2 the vehicle is considered stationary
+    private static final double STATIONARY_VARIANCE = 0.02;
+    // Share of the compass/gyro heading difference corrected per magnetometer sample
+    private static final double COMPASS_WEIGHT = 0.02;
+    // Gyro gaps longer than this are not integrated
+    private static final long MAX_GYRO_STEP_NANOS = 200_000_000L;
+    // GPS course is only trusted above this speed in m/s
+    private static final double MIN_COURSE_SPEED = 1.0;
+    // Uncertainty added per metre travelled on dead reckoning
+    private static final double DRIFT_PER_METER = 0.1;
+
+    private final SampleBuffer accelerometer;
+    private final SampleBuffer gyroscope;
+    private final SampleBuffer magnetometer;
+
+    // Last GPS fix the estimate is relative to
+    private boolean hasAnchor = false;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private float anchorAccuracy;
+    private long anchorTimeNanos;
+
+    // Displacement from the anchor in metres, local east/north plane
+    private double eastMeters;
+    private double northMeters;
+    private double distanceMeters;
+    private long stateTimeNanos;
+
+    private boolean hasHeading = false;
+    // Radians clockwise from north
+    private double heading;
+    private double speed;
+
+    private boolean hasGravity = false;
+    private float gravityX, gravityY, gravityZ;
+    private double accelMean;
+    private double accelVariance = Double.MAX_VALUE;
+
+    private long lastGyroNanos = -1;
+
+    private double azimuth;
+    private boolean hasCompassOffset = false;
+    // Set at each fix; the first magnetometer sample after it recalibrates the compass
+    private boolean compassCalibrationPending = false;
+    private double compassOffset;
+
+    // Newest sample received per sensor, -1 before the first
+    private long latestAccelerometerNanos = -1;
+    private long latestGyroscopeNanos = -1;
+
+    public DeadReckoning() {
+        this(DEFAULT_BUFFER_CAPACITY);
+    }
+
+    public DeadReckoning(int bufferCapacity) {
+        accelerometer = new SampleBuffer(bufferCapacity);
+        gyroscope = new SampleBuffer(bufferCapacity);
+        magnetometer = new SampleBuffer(bufferCapacity);
+    }
+
+    /**
+     * Reusable holder for an estimated position.
+     */
+    public static class Estimate {
+
+        private double latitude;
+        private double longitude;
+        private float accuracy;
+        private long timestampNanos;
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        // Estimated uncertainty in metres, growing with the distance dead-reckoned
+        public float getAccuracy() {
+            return accuracy;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        // Always true; estimates are interpolated, never measured
+        public boolean isInterpolated() {
+            return true;
+        }
+    }
+
+    public void addAccelerometer(long timestampNanos, float x, float y, float z) {
+        if (accelerometer.isFull()) {
+            processUntil(accelerometer.timestampAt(0));
+        }
+        accelerometer.add(timestampNanos, x, y, z);
+        latestAccelerometerNanos = Math.max(latestAccelerometerNanos, timestampNanos);
+    }
+
+    public void addGyroscope(long timestampNanos, float x, float y, float z) {
+        if (gyroscope.isFull()) {
+            processUntil(gyroscope.timestampAt(0));
+        }
+        gyroscope.add(timestampNanos, x, y, z);
+        latestGyroscopeNanos = Math.max(latestGyroscopeNanos, timestampNanos);
+    }
+
+    public void addMagnetometer(long timestampNanos, float x, float y, float z) {
+        if (magnetometer.isFull()) {
+            processUntil(magnetometer.timestampAt(0));
+        }
+        magnetometer.add(timestampNanos, x, y, z);
+    }
+
+    /**
+     * Re-anchors the estimate on an accurate GPS fix. Speed and bearing are used when the fix has
+     * them, otherwise they are derived from the previous fix.
+     */
+    public void onGpsFix(long timestampNanos, double latitude, double longitude, float accuracy,
+                         boolean hasSpeed, float speedMetersPerSecond,
+                         boolean hasBearing, float bearingDegrees) {
+        processUntil(timestampNanos);
+
+        double course = Double.NaN;
+        double derivedSpeed = Double.NaN;
+        if (hasAnchor && timestampNanos > anchorTimeNanos) {
+            double east = Math.toRadians(longitude - anchorLongitude) * EARTH_RADIUS_M
+                    * Math.cos(Math.toRadians(anchorLatitude));
+            double north = Math.toRadians(latitude - anchorLatitude) * EARTH_RADIUS_M;
+            double moved = Math.hypot(east, north);
+            derivedSpeed = moved / ((timestampNanos - anchorTimeNanos) / NANOS_PER_SECOND);
+            if (moved > accuracy) {
+                course = Math.atan2(east, north);
+            }
+        }
+
+        speed = hasSpeed ? speedMetersPerSecond : (Double.isNaN(derivedSpeed) ? 0 : derivedSpeed);
+        if (hasBearing && speed >= MIN_COURSE_SPEED) {
+            course = Math.toRadians(bearingDegrees);
+        }
+        if (!Double.isNaN(course)) {
+            heading = wrap(course);
+            hasHeading = true;
+            // The latest azimuth may predate the fix by a whole FIFO batch, so calibrate on the
+            // first magnetometer sample after it instead
+            compassCalibrationPending = true;
+        }
+
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        anchorAccuracy = accuracy;
+        anchorTimeNanos = timestampNanos;
+        eastMeters = 0;
+        northMeters = 0;
+        distanceMeters = 0;
+        stateTimeNanos = timestampNanos;
+        // Gyro integration restarts from the fix; earlier samples are discarded as stale
+        lastGyroNanos = timestampNanos;
+    }
+
+    /**
+     * Fills {@code out} with the estimated position at {@code timestampNanos}, consuming buffered
+     * samples up to that time. Returns false when there is no usable anchor or heading yet, or the
+     * last fix is too old to extrapolate from.
+     */
+    public boolean estimate(long timestampNanos, Estimate out) {
+        if (!hasAnchor || !hasHeading || timestampNanos < anchorTimeNanos
+                || timestampNanos - anchorTimeNanos > MAX_ESTIMATE_AGE_NANOS) {
+            return false;
+        }
+
+        processUntil(timestampNanos);
+        advanceTo(timestampNanos);
+
+        double latitude = anchorLatitude + Math.toDegrees(northMeters / EARTH_RADIUS_M);
+        double longitude = anchorLongitude + Math.toDegrees(
+                eastMeters / (EARTH_RADIUS_M * Math.cos(Math.toRadians(anchorLatitude))));
+
+        out.latitude = latitude;
+        out.longitude = longitude;
+        out.accuracy = (float) (anchorAccuracy + DRIFT_PER_METER * distanceMeters);
+        out.timestampNanos = timestampNanos;
+        return true;
+    }
+
+    /**
+     * Newest time up to which both accelerometer and gyroscope samples have been received, or -1
+     * if either has not delivered anything yet. Samples after it may still be sitting in a
+     * sensor FIFO, so estimating past it would miss turns and stops.
+     */
+    public long getSampledUntilNanos() {
+        if (latestAccelerometerNanos < 0 || latestGyroscopeNanos < 0) {
+            return -1;
+        }
+        return Math.min(latestAccelerometerNanos, latestGyroscopeNanos);
+    }
+
+    public boolean isStationary() {
+        return hasGravity && accelVariance < STATIONARY_VARIANCE;
+    }
+
+    public void reset() {
+        accelerometer.clear();
+        gyroscope.clear();
+        magnetometer.clear();
+        hasAnchor = false;
+        hasHeading = false;
+        hasGravity = false;
+        hasCompassOffset = false;
+        compassCalibrationPending = false;
+        latestAccelerometerNanos = -1;
+        latestGyroscopeNanos = -1;
+        accelVariance = Double.MAX_VALUE;
+        lastGyroNanos = -1;
+        speed = 0;
+    }
+
+    // Applies buffered samples from all sensors in timestamp order, up to and including the limit
+    private void processUntil(long limitNanos) {
+        while (true) {
+            SampleBuffer next = null;
+            long nextTime = limitNanos;
+            if (!accelerometer.isEmpty() && accelerometer.timestampAt(0) <= nextTime) {
+                next = accelerometer;
+                nextTime = accelerometer.timestampAt(0);
+            }
+            if (!gyroscope.isEmpty() && gyroscope.timestampAt(0) <= nextTime) {
+                next = gyroscope;
+                nextTime = gyroscope.timestampAt(0);
+            }
+            if (!magnetometer.isEmpty() && magnetometer.timestampAt(0) <= nextTime) {
+                next = magnetometer;
+                nextTime = magnetometer.timestampAt(0);
+            }
+            if (next == null) {
+                return;
+            }
+
+            // Batched samples can arrive after an estimate already moved past them; they still
+            // update orientation and motion state but never move the position backwards
+            advanceTo(nextTime);
+            float x = next.xAt(0);
+            float y = next.yAt(0);
+            float z = next.zAt(0);
+            next.removeFirst();
+
+            // Gyroscope and magnetometer samples from before the fix would turn its course
+            boolean stale = hasAnchor && nextTime <= anchorTimeNanos;
+            if (next == accelerometer) {
+                applyAccelerometer(x, y, z);
+            } else if (stale) {
+                continue;
+            } else if (next == gyroscope) {
+                applyGyroscope(nextTime, x, y, z);
+            } else {
+                applyMagnetometer(x, y, z);
+            }
+        }
+    }
+
+    private void advanceTo(long timestampNanos) {
+        if (!hasAnchor || timestampNanos <= stateTimeNanos) {
+            return;
+        }
+        double seconds = (timestampNanos - stateTimeNanos) / NANOS_PER_SECOND;
+        stateTimeNanos = timestampNanos;
+        if (!hasHeading || isStationary()) {
+            return;
+        }
+        double step = speed * seconds;
+        eastMeters += step * Math.sin(heading);
+        northMeters += step * Math.cos(heading);
+        distanceMeters += step;
+    }
+
+    private void applyAccelerometer(float x, float y, float z) {
+        if (hasGravity) {
+            gravityX = GRAVITY_FILTER_ALPHA * gravityX + (1 - GRAVITY_FILTER_ALPHA) * x;
+            gravityY = GRAVITY_FILTER_ALPHA * gravityY + (1 - GRAVITY_FILTER_ALPHA) * y;
+            gravityZ = GRAVITY_FILTER_ALPHA * gravityZ + (1 - GRAVITY_FILTER_ALPHA) * z;
+        } else {
+            gravityX = x;
+            gravityY = y;
+            gravityZ = z;
+        }
+
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        if (hasGravity) {
+            double deviation = magnitude - accelMean;
+            accelMean += MOTION_FILTER_ALPHA * deviation;
+            accelVariance += MOTION_FILTER_ALPHA * (deviation * deviation - accelVariance);
+        } else {
+            accelMean = magnitude;
+            accelVariance = 0;
+            hasGravity = true;
+        }
+    }
+
+    private void applyGyroscope(long timestampNanos, float x, float y, float z) {
+        long previous = lastGyroNanos;
+        lastGyroNanos = timestampNanos;
+        if (!hasGravity || !hasHeading || previous < 0) {
+            return;
+        }
+        long stepNanos = timestampNanos - previous;
+        if (stepNanos <= 0 || stepNanos > MAX_GYRO_STEP_NANOS) {
+            return;
+        }
+
+        double gravity = Math.sqrt(gravityX * gravityX + gravityY * gravityY + gravityZ * gravityZ);
+        if (gravity == 0) {
+            return;
+        }
+        // Counter-clockwise rotation about "up" turns left, i.e. decreases the heading
+        double yawRate = (x * gravityX + y * gravityY + z * gravityZ) / gravity;
+        heading = wrap(heading - yawRate * (stepNanos / NANOS_PER_SECOND));
+    }
+
+    private void applyMagnetometer(float x, float y, float z) {
+        if (!hasGravity) {
+            return;
+        }
+
+        // Same construction as SensorManager.getRotationMatrix: east = m x g, north = g x east
+        double eastX = y * gravityZ - z * gravityY;
+        double eastY = z * gravityX - x * gravityZ;
+        double eastZ = x * gravityY - y * gravityX;
+        double eastNorm = Math.sqrt(eastX * eastX + eastY * eastY + eastZ * eastZ);
+        if (eastNorm < 1e-3) {
+            return;
+        }
+        // Azimuth of the device y axis; both terms are scaled by |g| * |east|, which cancels
+        double gravity = Math.sqrt(gravityX * gravityX + gravityY * gravityY + gravityZ * gravityZ);
+        double northY = gravityZ * eastX - gravityX * eastZ;
+        azimuth = Math.atan2(eastY * gravity, northY);
+
+        if (hasHeading && compassCalibrationPending) {
+            compassOffset = wrap(heading - azimuth);
+            hasCompassOffset = true;
+            compassCalibrationPending = false;
+        } else if (hasHeading && hasCompassOffset) {
+            double course = wrap(azimuth + compassOffset);
+            heading = wrap(heading + COMPASS_WEIGHT * wrap(course - heading));
+        }
+    }
+
+    // Wraps an angle into (-PI, PI]
+    private static double wrap(double radians) {
+        while (radians > Math.PI) {
+            radians -= 2 * Math.PI;
+        }
+        while (radians <= -Math.PI) {
+            radians += 2 * Math.PI;
+        }
+        return radians;
+    }
+
+    /**
+     * Fixed-capacity FIFO of three-axis sensor samples backed by primitive arrays.
+     */
+    static class SampleBuffer {
+
+        private final long[] timestamps;
+        private final float[] xs;
+        private final float[] ys;
+        private final float[] zs;
+        private int head = 0;
+        private int size = 0;
+
+        SampleBuffer(int capacity) {
+            timestamps = new long[capacity];
+            xs = new float[capacity];
+            ys = new float[capacity];
+            zs = new float[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean isFull() {
+            return size == timestamps.length;
+        }
+
+        void add(long timestampNanos, float x, float y, float z) {
+            if (isFull()) {
+                throw new IllegalStateException("SampleBuffer is full");
+            }
+            int slot = (head + size) % timestamps.length;
+            timestamps[slot] = timestampNanos;
+            xs[slot] = x;
+            ys[slot] = y;
+            zs[slot] = z;
+            size++;
+        }
+
+        void removeFirst() {
+            if (isEmpty()) {
+                throw new IllegalStateException("SampleBuffer is empty");
+            }
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        long timestampAt(int index) {
+            return timestamps[physical(index)];
+        }
+
+        float xAt(int index) {
+            return xs[physical(index)];
+        }
+
+        float yAt(int index) {
+            return ys[physical(index)];
+        }
+
+        float zAt(int index) {
+            return zs[physical(index)];
+        }
+
+        private int physical(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return (head + index) % timestamps.length;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.cargotrackingapp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Validation and persistence of location fixes, kept free of Android and Firebase types so the
+ * ingestion path can be exercised on the JVM against a fake backend.
+ */
+public class LocationIngestor {
+
+    public static final String COLLECTION_LOCATIONS = "locations";
+    public static final String FIELD_LATITUDE = "latitude";
+    public static final String FIELD_LONGITUDE = "longitude";
+    public static final String FIELD_TIMESTAMP = "timestamp";
+    public static final String FIELD_ACCURACY = "accuracy";
+    // True for dead-reckoned positions, false for GPS fixes
+    public static final String FIELD_INTERPOLATED = "interpolated";
+
+    // Fixes less accurate than this are not saved
+    public static final float MAX_ACCURACY_METERS = 100;
+
+    public enum Result {
+        // Not a real position, nothing was saved
+        INVALID_POSITION,
+        // Too inaccurate to save as a fix
+        INACCURATE,
+        // Saved as a fix
+        SAVED
+    }
+
+    public interface LocationStore {
+        void add(String collection, Map<String, Object> data, WriteCallback callback);
+    }
+
+    public interface WriteCallback {
+        void onSuccess(String documentId);
+
+        void onFailure(Exception e);
+    }
+
+    private final LocationStore store;
+
+    public LocationIngestor(LocationStore store) {
+        this.store = store;
+    }
+
+    // 0,0 is in the ocean and is what a failed fix usually reports
+    public static boolean isValidPosition(double latitude, double longitude) {
+        return !(latitude == 0 && longitude == 0);
+    }
+
+    public static boolean isAccurateEnough(boolean hasAccuracy, float accuracy) {
+        return !hasAccuracy || accuracy <= MAX_ACCURACY_METERS;
+    }
+
+    /**
+     * Decides what to do with a fix from the location provider and saves it when it passes the
+     * checks. This is the whole ingestion decision of {@link LocationService}.
+     */
+    public Result ingest(double latitude, double longitude, boolean hasAccuracy, float accuracy,
+                         long timestamp, WriteCallback callback) {
+        if (!isValidPosition(latitude, longitude)) {
+            return Result.INVALID_POSITION;
+        }
+        if (!isAccurateEnough(hasAccuracy, accuracy)) {
+            return Result.INACCURATE;
+        }
+        save(latitude, longitude, timestamp, callback);
+        return Result.SAVED;
+    }
+
+    public void save(double latitude, double longitude, long timestamp, WriteCallback callback) {
+        Map<String, Object> locationData = createLocationData(latitude, longitude, timestamp);
+        locationData.put(FIELD_INTERPOLATED, false);
+
+        store.add(COLLECTION_LOCATIONS, locationData, callback);
+    }
+
+    public void saveEstimate(double latitude, double longitude, long timestamp, float accuracy,
+                             WriteCallback callback) {
+        Map<String, Object> locationData = createLocationData(latitude, longitude, timestamp);
+        locationData.put(FIELD_ACCURACY, (double) accuracy);
+        locationData.put(FIELD_INTERPOLATED, true);
+
+        store.add(COLLECTION_LOCATIONS, locationData, callback);
+    }
+
+    private static Map<String, Object> createLocationData(double latitude, double longitude, long timestamp) {
+        Map<String, Object> locationData = new HashMap<>();
+        locationData.put(FIELD_LATITUDE, latitude);
+        locationData.put(FIELD_LONGITUDE, longitude);
+        locationData.put(FIELD_TIMESTAMP, timestamp);
+        return locationData;
+    }
+}
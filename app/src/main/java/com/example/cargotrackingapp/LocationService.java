@@ -1,5 +1,6 @@
 package com.example.cargotrackingapp;
 
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -7,10 +8,17 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.content.pm.ServiceInfo;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
 import android.location.Location;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -23,10 +31,12 @@ import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 public class LocationService extends Service {
 
@@ -39,18 +49,93 @@ public class LocationService extends Service {
     public static final String ACTION_LOCATION_UPDATE = "com.example.cargotracking.LOCATION_UPDATE";
     public static final String EXTRA_LATITUDE = "extra_latitude";
     public static final String EXTRA_LONGITUDE = "extra_longitude";
+    public static final String EXTRA_INTERPOLATED = "extra_interpolated";
+
+    // Location writes per Firestore commit, and how long a partial batch may stay open; size
+    // these with LocationIngestionLoadTest. A batch size of 1 writes every fix as it arrives.
+    private static final int WRITE_BATCH_SIZE = 1;
+    private static final long WRITE_FLUSH_INTERVAL_MS = 60000;
+
+    // GPS is only requested every 30 s since missed fixes are dead-reckoned; fixes other apps
+    // request are still taken up to every 10 s at no extra cost
+    private static final long LOCATION_INTERVAL_MS = 30000;
+    private static final long LOCATION_MIN_INTERVAL_MS = 10000;
+
+    // Motion sensors are sampled at 25 Hz but delivered in batches from the hardware FIFO. They
+    // do not wake the device; if it stays suspended until a FIFO overflows, the oldest samples
+    // are lost, which the gap check alarm keeps rare
+    private static final int SENSOR_SAMPLING_PERIOD_US = 40_000;
+    private static final int SENSOR_MAX_REPORT_LATENCY_US = 10_000_000;
+    // Without an accurate fix for this long, i.e. a missed fix, positions are dead-reckoned
+    private static final long GPS_GAP_NANOS = 45_000_000_000L;
+    private static final long GAP_CHECK_INTERVAL_MS = 10000;
+    private static final String GAP_CHECK_ALARM_TAG = "CargoTracking:gapCheck";
+    // Estimate from whatever has arrived if a flush does not complete in time
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+    // Keeps the CPU awake from a flush request until its estimate is saved
+    private static final long ESTIMATE_WAKE_LOCK_TIMEOUT_MS = FLUSH_TIMEOUT_MS + 3000;
 
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
     private FirebaseFirestore db;
+    private BatchingLocationStore locationStore;
+    private LocationIngestor ingestor;
+    private SensorManager sensorManager;
+    private SensorEventListener2 sensorListener;
+    private int registeredSensorCount;
+    // Both are needed to know how far the delivered samples reach
+    private boolean motionSensorsRegistered;
+    private int pendingFlushes;
+    private DeadReckoning deadReckoning;
+    private final DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+    private Handler handler;
+    private AlarmManager alarmManager;
+    private AlarmManager.OnAlarmListener gapCheck;
+    private Runnable flushTimeout;
+    private PowerManager.WakeLock estimateWakeLock;
+    private long lastFixNanos;
+    private long lastEstimateNanos;
     private boolean isTracking = false;
 
+    private final LocationIngestor.WriteCallback saveCallback = new LocationIngestor.WriteCallback() {
+        @Override
+        public void onSuccess(String documentId) {
+            Log.d(TAG, "Location saved to Firestore: " + documentId);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            Log.e(TAG, "Error saving location to Firestore", e);
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
 
         // Initialize Firebase Firestore
         db = FirebaseFirestore.getInstance();
+        locationStore = new BatchingLocationStore((collection, documents, callbacks) -> {
+            WriteBatch batch = db.batch();
+            List<String> documentIds = new ArrayList<>(documents.size());
+            for (int i = 0; i < documents.size(); i++) {
+                DocumentReference documentReference = db.collection(collection).document();
+                batch.set(documentReference, documents.get(i));
+                documentIds.add(documentReference.getId());
+            }
+            batch.commit()
+                    .addOnSuccessListener(unused -> {
+                        for (int i = 0; i < callbacks.size(); i++) {
+                            callbacks.get(i).onSuccess(documentIds.get(i));
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        for (LocationIngestor.WriteCallback callback : callbacks) {
+                            callback.onFailure(e);
+                        }
+                    });
+        }, WRITE_BATCH_SIZE, WRITE_FLUSH_INTERVAL_MS, SystemClock::elapsedRealtime);
+        ingestor = new LocationIngestor(locationStore);
 
         // Initialize location client
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
@@ -70,6 +155,68 @@ public class LocationService extends Service {
             }
         };
 
+        // Dead reckoning fills GPS gaps from motion sensors
+        deadReckoning = new DeadReckoning();
+        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        sensorListener = new SensorEventListener2() {
+            @Override
+            public void onSensorChanged(SensorEvent event) {
+                float[] values = event.values;
+                switch (event.sensor.getType()) {
+                    case Sensor.TYPE_ACCELEROMETER:
+                        deadReckoning.addAccelerometer(event.timestamp, values[0], values[1], values[2]);
+                        break;
+                    case Sensor.TYPE_GYROSCOPE:
+                        deadReckoning.addGyroscope(event.timestamp, values[0], values[1], values[2]);
+                        break;
+                    case Sensor.TYPE_MAGNETIC_FIELD:
+                        deadReckoning.addMagnetometer(event.timestamp, values[0], values[1], values[2]);
+                        break;
+                }
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            }
+
+            @Override
+            public void onFlushCompleted(Sensor sensor) {
+                // Called once per registered sensor; estimate when all FIFOs are drained
+                if (pendingFlushes > 0 && --pendingFlushes == 0) {
+                    handler.removeCallbacks(flushTimeout);
+                    publishEstimate();
+                    releaseEstimateWakeLock();
+                }
+            }
+        };
+
+        handler = new Handler(Looper.getMainLooper());
+        // The gap check is a wakeup alarm on the elapsed-realtime clock, so it still fires when
+        // no location callbacks arrive and the device has suspended. While the device is idle in
+        // Doze, the system defers it to the next maintenance window.
+        alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        gapCheck = new AlarmManager.OnAlarmListener() {
+            @Override
+            public void onAlarm() {
+                // Only when no fix at all arrived; inaccurate fixes trigger their own estimates
+                long now = SystemClock.elapsedRealtimeNanos();
+                if (now - lastFixNanos > GPS_GAP_NANOS
+                        && now - lastEstimateNanos >= GAP_CHECK_INTERVAL_MS * 1_000_000L) {
+                    processGpsGap();
+                }
+                scheduleGapCheck();
+            }
+        };
+        flushTimeout = () -> {
+            Log.d(TAG, "Sensor flush timed out with " + pendingFlushes + " pending");
+            pendingFlushes = 0;
+            publishEstimate();
+            releaseEstimateWakeLock();
+        };
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        estimateWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "CargoTracking:estimate");
+        estimateWakeLock.setReferenceCounted(false);
+
         // Create notification channel for Android O and above
         createNotificationChannel();
     }
@@ -92,9 +239,9 @@ public class LocationService extends Service {
 
     private void startLocationTracking() {
         // Create location request
-        LocationRequest locationRequest = new LocationRequest.Builder(10000) // 10 seconds
+        LocationRequest locationRequest = new LocationRequest.Builder(LOCATION_INTERVAL_MS)
                 .setPriority(Priority.PRIORITY_HIGH_ACCURACY)
-                .setMinUpdateIntervalMillis(5000) // 5 seconds
+                .setMinUpdateIntervalMillis(LOCATION_MIN_INTERVAL_MS)
                 .build();
 
         try {
@@ -107,6 +254,11 @@ public class LocationService extends Service {
 
             isTracking = true;
 
+            // Start motion sensors and watch for GPS gaps
+            lastFixNanos = SystemClock.elapsedRealtimeNanos();
+            registerMotionSensors();
+            scheduleGapCheck();
+
             // Start foreground service with notification
             startForeground();
 
@@ -121,6 +273,19 @@ public class LocationService extends Service {
         fusedLocationClient.removeLocationUpdates(locationCallback);
         isTracking = false;
 
+        // Stop motion sensors
+        alarmManager.cancel(gapCheck);
+        handler.removeCallbacks(flushTimeout);
+        releaseEstimateWakeLock();
+        sensorManager.unregisterListener(sensorListener);
+        registeredSensorCount = 0;
+        motionSensorsRegistered = false;
+        pendingFlushes = 0;
+        deadReckoning.reset();
+
+        // Write out any fixes still waiting for their batch
+        locationStore.flush();
+
         // Stop foreground service
         stopForeground(true);
 
@@ -128,20 +293,28 @@ public class LocationService extends Service {
     }
 
     private void processLocationUpdate(Location location) {
-        // Check if the location is valid (not 0,0 which is in the ocean)
-        if (location.getLatitude() == 0 && location.getLongitude() == 0) {
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+
+        // Validate and save to Firestore
+        LocationIngestor.Result result = ingestor.ingest(latitude, longitude,
+                location.hasAccuracy(), location.getAccuracy(), System.currentTimeMillis(), saveCallback);
+
+        if (result == LocationIngestor.Result.INVALID_POSITION) {
             Log.d(TAG, "Ignoring invalid location at 0,0");
             return;
         }
-
-        // Check if the location has reasonable accuracy
-        if (location.hasAccuracy() && location.getAccuracy() > 100) {  // More than 100 meters
-            Log.d(TAG, "Ignoring inaccurate location: " + location.getAccuracy() + "m");
+        if (result == LocationIngestor.Result.INACCURATE) {
+            Log.d(TAG, "Ignoring inaccurate location: " + location.getAccuracy() + "m, estimating instead");
+            processGpsGap();
             return;
         }
 
-        double latitude = location.getLatitude();
-        double longitude = location.getLongitude();
+        // Re-anchor dead reckoning on the accurate fix
+        lastFixNanos = location.getElapsedRealtimeNanos();
+        deadReckoning.onGpsFix(lastFixNanos, latitude, longitude, location.getAccuracy(),
+                location.hasSpeed(), location.getSpeed(),
+                location.hasBearing(), location.getBearing());
 
         // Update foreground notification
         updateNotification(latitude, longitude);
@@ -155,24 +328,105 @@ public class LocationService extends Service {
         intent.putExtra(EXTRA_LONGITUDE, longitude);
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
 
-        // Save to Firestore
-        saveLocationToFirestore(latitude, longitude);
-
         Log.d(TAG, "Location update: " + latitude + ", " + longitude);
     }
 
-    private void saveLocationToFirestore(double latitude, double longitude) {
-        Map<String, Object> locationData = new HashMap<>();
-        locationData.put("latitude", latitude);
-        locationData.put("longitude", longitude);
-        locationData.put("timestamp", System.currentTimeMillis());
-
-        db.collection("locations")
-                .add(locationData)
-                .addOnSuccessListener(documentReference ->
-                        Log.d(TAG, "Location saved to Firestore: " + documentReference.getId()))
-                .addOnFailureListener(e ->
-                        Log.e(TAG, "Error saving location to Firestore", e));
+    private void registerMotionSensors() {
+        int[] sensorTypes = {Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_MAGNETIC_FIELD};
+        boolean hasAccelerometer = false;
+        boolean hasGyroscope = false;
+        registeredSensorCount = 0;
+        for (int sensorType : sensorTypes) {
+            Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+            if (sensor == null) {
+                Log.d(TAG, "Sensor not available for dead reckoning: " + sensorType);
+                continue;
+            }
+            if (sensorManager.registerListener(sensorListener, sensor,
+                    SENSOR_SAMPLING_PERIOD_US, SENSOR_MAX_REPORT_LATENCY_US)) {
+                registeredSensorCount++;
+                hasAccelerometer |= sensorType == Sensor.TYPE_ACCELEROMETER;
+                hasGyroscope |= sensorType == Sensor.TYPE_GYROSCOPE;
+            }
+        }
+        motionSensorsRegistered = hasAccelerometer && hasGyroscope;
+    }
+
+    private void processGpsGap() {
+        lastEstimateNanos = SystemClock.elapsedRealtimeNanos();
+        if (pendingFlushes > 0) {
+            // Already waiting for a flush; its estimate covers this one
+            return;
+        }
+
+        // Drain the sensor FIFOs first so the estimate sees the latest turns and stops
+        if (registeredSensorCount > 0 && sensorManager.flush(sensorListener)) {
+            // The alarm only keeps the CPU awake while it runs; hold it until the flush completes
+            estimateWakeLock.acquire(ESTIMATE_WAKE_LOCK_TIMEOUT_MS);
+            pendingFlushes = registeredSensorCount;
+            handler.postDelayed(flushTimeout, FLUSH_TIMEOUT_MS);
+            return;
+        }
+        publishEstimate();
+    }
+
+    private void scheduleGapCheck() {
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + GAP_CHECK_INTERVAL_MS,
+                GAP_CHECK_ALARM_TAG, gapCheck, handler);
+    }
+
+    private void releaseEstimateWakeLock() {
+        if (estimateWakeLock.isHeld()) {
+            estimateWakeLock.release();
+        }
+    }
+
+    private void publishEstimate() {
+        // Estimate only as far as samples have arrived, never ahead of them
+        long now = SystemClock.elapsedRealtimeNanos();
+        long estimateNanos = now;
+        if (motionSensorsRegistered) {
+            long sampledUntilNanos = deadReckoning.getSampledUntilNanos();
+            if (sampledUntilNanos < 0) {
+                return;
+            }
+            estimateNanos = Math.min(now, sampledUntilNanos);
+        }
+        if (!deadReckoning.estimate(estimateNanos, estimate)) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis() - (now - estimateNanos) / 1_000_000L;
+
+        double latitude = estimate.getLatitude();
+        double longitude = estimate.getLongitude();
+
+        // Update foreground notification
+        updateNotification(latitude, longitude);
+
+        // Send broadcast to update UI, flagged as an estimate
+        Intent intent = new Intent(ACTION_LOCATION_UPDATE);
+        intent.putExtra(EXTRA_LATITUDE, latitude);
+        intent.putExtra(EXTRA_LONGITUDE, longitude);
+        intent.putExtra(EXTRA_INTERPOLATED, true);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+
+        // Save to Firestore
+        ingestor.saveEstimate(latitude, longitude, timestamp, estimate.getAccuracy(),
+                new LocationIngestor.WriteCallback() {
+                    @Override
+                    public void onSuccess(String documentId) {
+                        Log.d(TAG, "Estimated location saved to Firestore: " + documentId);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.e(TAG, "Error saving estimated location to Firestore", e);
+                    }
+                });
+
+        Log.d(TAG, "Estimated location: " + latitude + ", " + longitude
+                + " (+/- " + estimate.getAccuracy() + "m)");
     }
 
     private void createNotificationChannel() {
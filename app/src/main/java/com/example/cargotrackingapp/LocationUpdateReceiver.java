@@ -12,7 +12,7 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
     private LocationUpdateListener listener;
 
     public interface LocationUpdateListener {
-        void onLocationUpdate(double latitude, double longitude);
+        void onLocationUpdate(double latitude, double longitude, boolean interpolated);
     }
 
     public LocationUpdateReceiver(LocationUpdateListener listener) {
@@ -24,9 +24,10 @@ public class LocationUpdateReceiver extends BroadcastReceiver {
         if (LocationService.ACTION_LOCATION_UPDATE.equals(intent.getAction())) {
             double latitude = intent.getDoubleExtra(LocationService.EXTRA_LATITUDE, 0);
             double longitude = intent.getDoubleExtra(LocationService.EXTRA_LONGITUDE, 0);
+            boolean interpolated = intent.getBooleanExtra(LocationService.EXTRA_INTERPOLATED, false);
 
             if (listener != null) {
-                listener.onLocationUpdate(latitude, longitude);
+                listener.onLocationUpdate(latitude, longitude, interpolated);
             }
         }
     }
@@ -6,6 +6,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import android.Manifest;
+import android.app.ActivityManager;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.location.Location;
@@ -22,22 +23,48 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements OnMapReadyCallback {
 
+    private static final String TAG = "MainActivity";
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1001;
+    // Memory budget for the in-memory track including its render copy, halved on low-RAM devices
+    private static final long TRACK_MEMORY_BUDGET_BYTES = 512 * 1024;
+    private static final float TRACK_RECENT_FRACTION = 0.25f;
+    // The drawn path is decimated to this many points; each costs a LatLng plus a list slot
+    private static final int MAX_RENDERED_POINTS = 2000;
+    private static final int RENDERED_POINT_BYTES = 40;
+    private static final int HISTORY_PAGE_SIZE = 500;
     private Button btnStartTracking, btnStopTracking;
     private TextView tvLatitude, tvLongitude;
     private GoogleMap mMap;
-    private List<LatLng> trackingPoints = new ArrayList<>();
+    private BoundedTrack trackingPoints;
+    private final List<LatLng> renderedPoints = new ArrayList<>(MAX_RENDERED_POINTS + 1);
+    private Polyline trackPolyline;
+    private Marker currentMarker;
+    private boolean isLoadingHistory = false;
+    private boolean hasMoreHistory = true;
+    private boolean shownHistoryHint = false;
+    // Set when history was read offline from a partial cache and may have gaps
+    private boolean historyIncomplete = false;
+    // Last document read while paging history, and the last GPS fix it let through the distance filter
+    private DocumentSnapshot historyCursor;
+    private LatLng lastAcceptedHistoryPoint;
+    // Newest live GPS fix let through the distance filter; estimates never anchor it
+    private LatLng lastAcceptedFix;
+    private long lastLoggedCompactions = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,6 +77,15 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         tvLatitude = findViewById(R.id.tvLatitude);
         tvLongitude = findViewById(R.id.tvLongitude);
 
+        // Initialize the memory-bounded track
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        long memoryBudget = activityManager != null && activityManager.isLowRamDevice()
+                ? TRACK_MEMORY_BUDGET_BYTES / 2
+                : TRACK_MEMORY_BUDGET_BYTES;
+        long renderBudget = (long) (MAX_RENDERED_POINTS + 1) * RENDERED_POINT_BYTES;
+        trackingPoints = new BoundedTrack(memoryBudget - renderBudget, TRACK_RECENT_FRACTION);
+        Log.d(TAG, "Track memory: budget=" + memoryBudget + "B, render=" + renderBudget + "B, " + trackingPoints);
+
         // Initialize Google Map
         SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
                 .findFragmentById(R.id.map);
@@ -75,9 +111,9 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         // Register broadcast receiver for location updates
         LocationUpdateReceiver.registerReceiver(this, new LocationUpdateReceiver.LocationUpdateListener() {
             @Override
-            public void onLocationUpdate(double latitude, double longitude) {
-                updateLocationUI(latitude, longitude);
-                updateMapWithNewLocation(latitude, longitude);
+            public void onLocationUpdate(double latitude, double longitude, boolean interpolated) {
+                updateLocationUI(latitude, longitude, interpolated);
+                updateMapWithNewLocation(latitude, longitude, interpolated);
             }
         });
     }
@@ -96,6 +132,7 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     private void startLocationTracking() {
         // Clear any previous tracking points
         trackingPoints.clear();
+        lastAcceptedFix = null;
 
         Intent serviceIntent = new Intent(this, LocationService.class);
         serviceIntent.setAction(LocationService.ACTION_START_TRACKING);
@@ -127,23 +164,24 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         WorkManagerHelper.cancelWork();
     }
 
-    private void updateLocationUI(double latitude, double longitude) {
-        tvLatitude.setText(String.format("Latitude: %.6f", latitude));
-        tvLongitude.setText(String.format("Longitude: %.6f", longitude));
+    private void updateLocationUI(double latitude, double longitude, boolean interpolated) {
+        // Dead-reckoned positions are shown as estimates
+        String suffix = interpolated ? " (estimated)" : "";
+        tvLatitude.setText(String.format("Latitude: %.6f", latitude) + suffix);
+        tvLongitude.setText(String.format("Longitude: %.6f", longitude) + suffix);
     }
 
-    private void updateMapWithNewLocation(double latitude, double longitude) {
+    private void updateMapWithNewLocation(double latitude, double longitude, boolean interpolated) {
         if (mMap != null) {
             LatLng newLocation = new LatLng(latitude, longitude);
 
             // Only add the point if it's the first one or within a reasonable distance from the last one
             boolean shouldAddPoint = true;
 
-            if (!trackingPoints.isEmpty()) {
-                LatLng lastPoint = trackingPoints.get(trackingPoints.size() - 1);
+            if (lastAcceptedFix != null) {
                 float[] results = new float[1];
                 Location.distanceBetween(
-                        lastPoint.latitude, lastPoint.longitude,
+                        lastAcceptedFix.latitude, lastAcceptedFix.longitude,
                         latitude, longitude,
                         results);
 
@@ -152,22 +190,61 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
             }
 
             if (shouldAddPoint) {
-                trackingPoints.add(newLocation);
+                if (!interpolated) {
+                    lastAcceptedFix = newLocation;
+                }
+                trackingPoints.add(latitude, longitude, System.currentTimeMillis());
+                logTrackMetricsIfCompacted();
             }
 
-            // Clear previous markers and add new one
-            mMap.clear();
-            mMap.addMarker(new MarkerOptions().position(newLocation).title("Current Location"));
+            // Move the current location marker
+            String title = interpolated ? "Estimated Location" : "Current Location";
+            if (currentMarker == null) {
+                currentMarker = mMap.addMarker(new MarkerOptions().position(newLocation).title(title));
+            } else {
+                currentMarker.setPosition(newLocation);
+                currentMarker.setTitle(title);
+            }
             mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(newLocation, 15));
 
             // Draw path only if we have valid points
-            if (trackingPoints.size() > 1) {
+            drawTrackingPath();
+        }
+    }
+
+    private void drawTrackingPath() {
+        if (trackingPoints.size() <= 1) {
+            // Drop a path left over from before the track was cleared
+            if (trackPolyline != null) {
+                renderedPoints.clear();
+                trackPolyline.setPoints(renderedPoints);
+            }
+        } else {
+            // Decimate into the reused render list, always keeping the newest point
+            int size = trackingPoints.size();
+            int step = (size + MAX_RENDERED_POINTS - 1) / MAX_RENDERED_POINTS;
+            renderedPoints.clear();
+            for (int i = 0; i < size; i += step) {
+                renderedPoints.add(new LatLng(trackingPoints.getLatitude(i), trackingPoints.getLongitude(i)));
+            }
+            if ((size - 1) % step != 0) {
+                renderedPoints.add(new LatLng(trackingPoints.getLatitude(size - 1), trackingPoints.getLongitude(size - 1)));
+            }
+
+            if (trackPolyline == null) {
                 PolylineOptions polylineOptions = new PolylineOptions()
-                        .addAll(trackingPoints)
                         .width(5)
                         .color(ContextCompat.getColor(this, R.color.colorPolyline));
-                mMap.addPolyline(polylineOptions);
+                trackPolyline = mMap.addPolyline(polylineOptions);
             }
+            trackPolyline.setPoints(renderedPoints);
+        }
+    }
+
+    private void logTrackMetricsIfCompacted() {
+        if (trackingPoints.getCompactions() != lastLoggedCompactions) {
+            lastLoggedCompactions = trackingPoints.getCompactions();
+            Log.d(TAG, "Track archive compacted: " + trackingPoints);
         }
     }
 
@@ -181,72 +258,132 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
             mMap.setMyLocationEnabled(true);
         }
 
+        // History is paged in on open until the track budget is full; a long-press on the map
+        // pages in more beyond that, at the cost of coarser resolution for the oldest part
+        mMap.setOnMapLongClickListener(latLng -> loadOlderTrackingData());
+
         // Load previous tracking data from Firestore
         loadTrackingDataFromFirestore();
     }
 
     private void loadTrackingDataFromFirestore() {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        db.collection("locations")
-                .orderBy("timestamp")
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful() && !task.getResult().isEmpty()) {
-                        trackingPoints.clear();
-
-                        for (QueryDocumentSnapshot document : task.getResult()) {
-                            double lat = document.getDouble("latitude");
-                            double lng = document.getDouble("longitude");
-                            trackingPoints.add(new LatLng(lat, lng));
-                        }
-
-                        // After retrieving points from Firestore but before drawing the polyline
-                        if (trackingPoints.size() > 1) {
-                            // Filter out points that are too far apart (likely errors)
-                            List<LatLng> filteredPoints = new ArrayList<>();
-                            LatLng previousPoint = null;
-
-                            for (LatLng point : trackingPoints) {
-                                if (previousPoint == null) {
-                                    filteredPoints.add(point);
-                                    previousPoint = point;
-                                } else {
-                                    // Calculate distance between points
-                                    float[] results = new float[1];
-                                    Location.distanceBetween(
-                                            previousPoint.latitude, previousPoint.longitude,
-                                            point.latitude, point.longitude,
-                                            results);
-
-                                    // Only add points that are within a reasonable distance (e.g., 10km)
-                                    if (results[0] < 10000) {
-                                        filteredPoints.add(point);
-                                        previousPoint = point;
-                                    } else {
-                                        Log.d("MainActivity", "Filtered out distant point: " + point.toString());
-                                    }
-                                }
-                            }
-
-                            // Replace original points with filtered points
-                            trackingPoints = filteredPoints;
-                        }
-
-                        // Draw the complete path
-                        if (trackingPoints.size() > 0) {
-                            LatLng lastPoint = trackingPoints.get(trackingPoints.size() - 1);
-                            mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(lastPoint, 15));
-
-                            if (trackingPoints.size() > 1) {
-                                PolylineOptions polylineOptions = new PolylineOptions()
-                                        .addAll(trackingPoints)
-                                        .width(5)
-                                        .color(ContextCompat.getColor(this, R.color.colorPolyline));
-                                mMap.addPolyline(polylineOptions);
-                            }
-                        }
-                    }
-                });
+        trackingPoints.clear();
+        hasMoreHistory = true;
+        historyIncomplete = false;
+        historyCursor = null;
+        lastAcceptedHistoryPoint = null;
+        lastAcceptedFix = null;
+        loadOlderTrackingData();
+    }
+
+    // Pages in the next batch of history older than the track. The default source reads from the
+    // server and only falls back to the local cache when offline.
+    private void loadOlderTrackingData() {
+        if (isLoadingHistory) {
+            return;
+        }
+        if (historyIncomplete) {
+            // Start over so documents the cache skipped are filled in
+            loadTrackingDataFromFirestore();
+            return;
+        }
+        if (!hasMoreHistory) {
+            return;
+        }
+        isLoadingHistory = true;
+
+        Query query = FirebaseFirestore.getInstance()
+                .collection(LocationIngestor.COLLECTION_LOCATIONS)
+                .orderBy(LocationIngestor.FIELD_TIMESTAMP, Query.Direction.DESCENDING);
+        if (historyCursor != null) {
+            query = query.startAfter(historyCursor);
+        }
+
+        query.limit(HISTORY_PAGE_SIZE).get().addOnCompleteListener(task -> {
+            if (task.isSuccessful()) {
+                onHistoryPageLoaded(task.getResult());
+            } else {
+                Log.e(TAG, "Error loading tracking history", task.getException());
+                isLoadingHistory = false;
+            }
+        });
+    }
+
+    private void onHistoryPageLoaded(QuerySnapshot page) {
+        isLoadingHistory = false;
+        // An offline page only holds what happens to be cached, so it may skip documents and a
+        // short one does not mean history ended; show it, then reload on the next page request
+        boolean fromCache = page.getMetadata().isFromCache();
+        hasMoreHistory = page.size() == HISTORY_PAGE_SIZE;
+        if (fromCache) {
+            historyIncomplete = true;
+            Toast.makeText(this, "Offline: route history may be incomplete", Toast.LENGTH_SHORT).show();
+        }
+        if (page.isEmpty()) {
+            return;
+        }
+
+        boolean wasEmpty = trackingPoints.isEmpty();
+        historyCursor = page.getDocuments().get(page.size() - 1);
+
+        // Documents arrive newest-first, so each one is prepended to the track
+        for (QueryDocumentSnapshot document : page) {
+            Double lat = document.getDouble(LocationIngestor.FIELD_LATITUDE);
+            Double lng = document.getDouble(LocationIngestor.FIELD_LONGITUDE);
+            Long timestamp = document.getLong(LocationIngestor.FIELD_TIMESTAMP);
+            if (lat == null || lng == null || timestamp == null) {
+                continue;
+            }
+            // Dead-reckoned estimates are drawn but never anchor the filter; older points have no flag
+            boolean interpolated = Boolean.TRUE.equals(document.getBoolean(LocationIngestor.FIELD_INTERPOLATED));
+
+            if (lastAcceptedHistoryPoint != null) {
+                // Filter out points that are too far apart (likely errors)
+                float[] results = new float[1];
+                Location.distanceBetween(
+                        lastAcceptedHistoryPoint.latitude, lastAcceptedHistoryPoint.longitude,
+                        lat, lng,
+                        results);
+
+                // Only add points that are within a reasonable distance (e.g., 10km)
+                if (results[0] >= 10000) {
+                    Log.d(TAG, "Filtered out distant point: " + lat + ", " + lng);
+                    continue;
+                }
+            }
+
+            if (!interpolated) {
+                lastAcceptedHistoryPoint = new LatLng(lat, lng);
+                if (lastAcceptedFix == null) {
+                    // The newest stored fix is where live updates continue from
+                    lastAcceptedFix = lastAcceptedHistoryPoint;
+                }
+            }
+            trackingPoints.addOlder(lat, lng, timestamp);
+        }
+
+        Log.d(TAG, "Loaded " + page.size() + " history points: " + trackingPoints);
+
+        // Draw the complete path
+        if (trackingPoints.size() > 0) {
+            if (wasEmpty) {
+                int last = trackingPoints.size() - 1;
+                LatLng lastPoint = new LatLng(trackingPoints.getLatitude(last), trackingPoints.getLongitude(last));
+                mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(lastPoint, 15));
+            }
+
+            drawTrackingPath();
+        }
+
+        // Keep paging while the track still has free budget
+        if (hasMoreHistory && !fromCache) {
+            if (!trackingPoints.isBudgetFilled()) {
+                loadOlderTrackingData();
+            } else if (!shownHistoryHint) {
+                shownHistoryHint = true;
+                Toast.makeText(this, "Long-press the map to load older history", Toast.LENGTH_LONG).show();
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,118 @@
+package com.example.cargotrackingapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BatchingLocationStore}.
+ */
+public class BatchingLocationStoreTest {
+
+    private final List<List<Map<String, Object>>> commits = new ArrayList<>();
+    private long nowMillis = 0;
+
+    private BatchingLocationStore createStore(int batchSize, long flushIntervalMs) {
+        return new BatchingLocationStore(
+                (collection, documents, callbacks) -> {
+                    assertEquals(documents.size(), callbacks.size());
+                    commits.add(documents);
+                    for (int i = 0; i < callbacks.size(); i++) {
+                        if (callbacks.get(i) != null) {
+                            callbacks.get(i).onSuccess(collection + "-" + i);
+                        }
+                    }
+                },
+                batchSize, flushIntervalMs, () -> nowMillis);
+    }
+
+    @Test
+    public void batchSizeOneCommitsEveryWrite() {
+        BatchingLocationStore store = createStore(1, 60_000);
+        store.add("locations", document(1), null);
+        store.add("locations", document(2), null);
+
+        assertEquals(2, commits.size());
+        assertEquals(0, store.getBufferedWrites());
+    }
+
+    @Test
+    public void commitsWhenBatchIsFull() {
+        BatchingLocationStore store = createStore(3, 60_000);
+        store.add("locations", document(1), null);
+        store.add("locations", document(2), null);
+        assertTrue(commits.isEmpty());
+        assertEquals(2, store.getBufferedWrites());
+
+        store.add("locations", document(3), null);
+        assertEquals(1, commits.size());
+        assertEquals(3, commits.get(0).size());
+        assertEquals(0, store.getBufferedWrites());
+    }
+
+    @Test
+    public void commitsOnFirstWriteAfterFlushInterval() {
+        BatchingLocationStore store = createStore(10, 5_000);
+        store.add("locations", document(1), null);
+        nowMillis = 4_999;
+        store.add("locations", document(2), null);
+        assertTrue(commits.isEmpty());
+
+        nowMillis = 5_000;
+        store.add("locations", document(3), null);
+        assertEquals(1, commits.size());
+        assertEquals(3, commits.get(0).size());
+    }
+
+    @Test
+    public void flushCommitsPartialBatch() {
+        BatchingLocationStore store = createStore(10, 60_000);
+        store.flush();
+        assertTrue(commits.isEmpty());
+
+        store.add("locations", document(1), null);
+        store.flush();
+        assertEquals(1, commits.size());
+        assertEquals(0, store.getBufferedWrites());
+    }
+
+    @Test
+    public void reportsEachWriteToItsOwnCallback() {
+        BatchingLocationStore store = createStore(2, 60_000);
+        List<String> ids = new ArrayList<>();
+        store.add("locations", document(1), callback(ids));
+        store.add("locations", document(2), callback(ids));
+
+        assertEquals(2, ids.size());
+        assertEquals("locations-0", ids.get(0));
+        assertEquals("locations-1", ids.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBatches() {
+        createStore(0, 0);
+    }
+
+    private static Map<String, Object> document(long timestamp) {
+        return Collections.<String, Object>singletonMap(LocationIngestor.FIELD_TIMESTAMP, timestamp);
+    }
+
+    private static LocationIngestor.WriteCallback callback(List<String> ids) {
+        return new LocationIngestor.WriteCallback() {
+            @Override
+            public void onSuccess(String documentId) {
+                ids.add(documentId);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                fail(e.toString());
+            }
+        };
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.cargotrackingapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BoundedTrack}.
+ */
+public class BoundedTrackTest {
+
+    private static final long BUDGET = 100 * BoundedTrack.BYTES_PER_POINT;
+
+    @Test
+    public void keepsRecentPointsAtFullResolution() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.5f);
+        for (int i = 0; i < 50; i++) {
+            track.add(i, -i, i);
+        }
+
+        assertEquals(50, track.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, track.getLatitude(i), 0);
+            assertEquals(-i, track.getLongitude(i), 0);
+            assertEquals(i, track.getTimestamp(i));
+        }
+        assertEquals(0, track.getDroppedPoints());
+    }
+
+    @Test
+    public void neverExceedsMemoryBudget() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.25f);
+        for (int i = 0; i < 100_000; i++) {
+            track.add(i, i, i);
+            assertTrue(track.getUsedBytes() <= track.getMemoryBudgetBytes());
+        }
+
+        assertTrue(track.getAllocatedBytes() <= track.getMemoryBudgetBytes());
+        assertTrue(track.getCompactions() > 0);
+        assertTrue(track.getTierStride(track.getTierCount() - 1) > 1);
+        assertEquals(100_000, track.size() + track.getDroppedPoints());
+    }
+
+    @Test
+    public void olderTiersAreCoarser() {
+        BoundedTrack track = new BoundedTrack(1000 * BoundedTrack.BYTES_PER_POINT, 0.2f);
+        for (int i = 0; i < 100_000; i++) {
+            track.add(i, i, i);
+        }
+
+        // Average spacing between kept points grows from the newest tier to the oldest
+        double previousSpacing = 1;
+        int index = track.size() - track.getRecentCapacity();
+        for (int tier = 0; tier < track.getTierCount(); tier++) {
+            int size = track.getTierSize(tier);
+            assertTrue(size > 1);
+            long newest = track.getTimestamp(index - 1);
+            long oldest = track.getTimestamp(index - size);
+            double spacing = (double) (newest - oldest) / (size - 1);
+            assertTrue("Tier " + tier + " spacing " + spacing, spacing > previousSpacing);
+            previousSpacing = spacing;
+            index -= size;
+        }
+    }
+
+    @Test
+    public void pagingOlderPointsKeepsNewerTierResolution() {
+        BoundedTrack track = new BoundedTrack(1000 * BoundedTrack.BYTES_PER_POINT, 0.2f);
+        for (int i = 100_000; i < 110_000; i++) {
+            track.add(i, i, i);
+        }
+        int newestTierSize = track.getTierSize(0);
+        int newestTierStride = track.getTierStride(0);
+
+        for (int i = 99_999; i >= 0; i--) {
+            track.addOlder(i, i, i);
+        }
+
+        assertEquals(newestTierSize, track.getTierSize(0));
+        assertEquals(newestTierStride, track.getTierStride(0));
+        assertTrue(track.getUsedBytes() <= track.getMemoryBudgetBytes());
+        for (int i = 1; i < track.size(); i++) {
+            assertTrue(track.getTimestamp(i) > track.getTimestamp(i - 1));
+        }
+    }
+
+    @Test
+    public void pagingLongHistoryFillsEveryTier() {
+        // A week of fixes every 10 s, paged in newest-first into an empty track
+        BoundedTrack track = new BoundedTrack(18_000 * BoundedTrack.BYTES_PER_POINT, 0.25f);
+        int weekOfFixes = 7 * 24 * 360;
+        for (int i = weekOfFixes - 1; i >= 0; i--) {
+            track.addOlder(i, i, i);
+        }
+
+        assertTrue(track.toString(), track.getUsedBytes() >= 0.75 * track.getAllocatedBytes());
+        assertEquals(weekOfFixes, track.size() + track.getDroppedPoints());
+        double previousSpacing = 1;
+        int index = track.size() - track.getRecentCapacity();
+        for (int tier = 0; tier < track.getTierCount(); tier++) {
+            int size = track.getTierSize(tier);
+            assertTrue(track.toString(), size > 1);
+            double spacing = (double) (track.getTimestamp(index - 1) - track.getTimestamp(index - size)) / (size - 1);
+            assertTrue("Tier " + tier + " spacing " + spacing, spacing > previousSpacing);
+            previousSpacing = spacing;
+            index -= size;
+        }
+        for (int i = 1; i < track.size(); i++) {
+            assertTrue(track.getTimestamp(i) > track.getTimestamp(i - 1));
+        }
+    }
+
+    @Test
+    public void budgetFillsOnceOldestTierIsFull() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.25f);
+        for (int i = 10_000; i >= 0 && !track.isBudgetFilled(); i--) {
+            track.addOlder(i, i, i);
+        }
+
+        assertTrue(track.isBudgetFilled());
+        assertEquals(track.getAllocatedBytes(), track.getUsedBytes());
+    }
+
+    @Test
+    public void downsamplesOlderPointsButKeepsOrder() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.25f);
+        for (int i = 0; i < 10_000; i++) {
+            track.add(i, i, i);
+        }
+
+        // The recent window is contiguous and ends at the newest point
+        int last = track.size() - 1;
+        for (int i = 0; i < track.getRecentCapacity(); i++) {
+            assertEquals(9_999 - i, track.getTimestamp(last - i));
+        }
+        for (int i = 1; i < track.size(); i++) {
+            assertTrue(track.getTimestamp(i) > track.getTimestamp(i - 1));
+        }
+    }
+
+    @Test
+    public void pagesOlderPointsInFront() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.25f);
+        for (int i = 1_000; i < 1_100; i++) {
+            track.add(i, i, i);
+        }
+        for (int i = 999; i >= 0; i--) {
+            track.addOlder(i, i, i);
+        }
+
+        assertTrue(track.getUsedBytes() <= track.getMemoryBudgetBytes());
+        assertEquals(1_099, track.getTimestamp(track.size() - 1));
+        for (int i = 1; i < track.size(); i++) {
+            assertTrue(track.getTimestamp(i) > track.getTimestamp(i - 1));
+        }
+        assertEquals(1_100, track.size() + track.getDroppedPoints());
+    }
+
+    @Test
+    public void olderPointsFillRecentWindowFirst() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.5f);
+        for (int i = 9; i >= 0; i--) {
+            track.addOlder(i, i, i);
+        }
+
+        assertEquals(10, track.size());
+        assertEquals(0, track.getOldestTimestamp());
+        assertEquals(9, track.getTimestamp(9));
+    }
+
+    @Test
+    public void clearResetsMetrics() {
+        BoundedTrack track = new BoundedTrack(BUDGET, 0.25f);
+        for (int i = 0; i < 1_000; i++) {
+            track.add(i, i, i);
+        }
+        track.clear();
+
+        assertTrue(track.isEmpty());
+        assertEquals(0, track.getDroppedPoints());
+        assertEquals(0, track.getCompactions());
+        assertEquals(2, track.getTierStride(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyBudget() {
+        new BoundedTrack(BoundedTrack.BYTES_PER_POINT, 0.5f);
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.cargotrackingapp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DeadReckoning}, replaying sensor traces from
+ * {@code src/test/resources/traces}.
+ */
+public class DeadReckoningTest {
+
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void tunnelTraceStaysCloseToTruth() throws Exception {
+        TraceResult result = replay("/traces/tunnel_turn.csv", 0);
+
+        // 30 s in the tunnel at 12 m/s, including a 90 degree turn
+        assertEquals(30, result.estimates);
+        assertTrue("Max error " + result.maxErrorMeters + "m", result.maxErrorMeters < 36);
+        assertTrue("Error at exit " + result.exitErrorMeters + "m", result.exitErrorMeters < 25);
+    }
+
+    @Test
+    public void batchedTunnelTraceStaysCloseToTruth() throws Exception {
+        // Sensors delivered in 10 s FIFO batches, as LocationService registers them
+        TraceResult result = replay("/traces/tunnel_turn.csv", 10 * SECOND);
+
+        assertTrue("Only " + result.estimates + " estimates", result.estimates >= 20);
+        assertTrue("Max error " + result.maxErrorMeters + "m", result.maxErrorMeters < 36);
+        assertTrue("Error at exit " + result.exitErrorMeters + "m", result.exitErrorMeters < 25);
+    }
+
+    @Test
+    public void lateGyroBatchDoesNotTurnFixCourse() {
+        DeadReckoning inOrder = new DeadReckoning();
+        DeadReckoning late = new DeadReckoning();
+        DeadReckoning.Estimate inOrderEstimate = new DeadReckoning.Estimate();
+        DeadReckoning.Estimate lateEstimate = new DeadReckoning.Estimate();
+        inOrder.onGpsFix(0, 51.95, 4.05, 5, true, 10, true, 0);
+        late.onGpsFix(0, 51.95, 4.05, 5, true, 10, true, 0);
+
+        // Turn right by 90 degrees between 1 s and 2 s, then a fix heading east at 5 s
+        for (long t = 0; t <= 15 * SECOND; t += SECOND / 50) {
+            if (t == 5 * SECOND) {
+                inOrder.onGpsFix(t, 51.95, 4.051, 5, true, 10, true, 90);
+            }
+            feedTurnSample(inOrder, t);
+        }
+        late.onGpsFix(5 * SECOND, 51.95, 4.051, 5, true, 10, true, 90);
+        for (long t = 0; t <= 15 * SECOND; t += SECOND / 50) {
+            feedTurnSample(late, t);
+        }
+
+        assertTrue(inOrder.estimate(15 * SECOND, inOrderEstimate));
+        assertTrue(late.estimate(15 * SECOND, lateEstimate));
+        // 100 m east of the second fix either way
+        assertEquals(100, distanceMeters(51.95, 4.051, lateEstimate.getLatitude(), lateEstimate.getLongitude()), 1);
+        assertTrue(lateEstimate.getLongitude() > 4.051);
+        assertEquals(inOrderEstimate.getLatitude(), lateEstimate.getLatitude(), 1e-6);
+        assertEquals(inOrderEstimate.getLongitude(), lateEstimate.getLongitude(), 1e-6);
+    }
+
+    @Test
+    public void sampledUntilTracksSlowestMotionSensor() {
+        DeadReckoning deadReckoning = new DeadReckoning();
+        assertEquals(-1, deadReckoning.getSampledUntilNanos());
+
+        deadReckoning.addAccelerometer(3 * SECOND, 0, 0, 9.81f);
+        assertEquals(-1, deadReckoning.getSampledUntilNanos());
+
+        deadReckoning.addGyroscope(2 * SECOND, 0, 0, 0);
+        assertEquals(2 * SECOND, deadReckoning.getSampledUntilNanos());
+    }
+
+    @Test
+    public void noEstimateWithoutFix() {
+        DeadReckoning deadReckoning = new DeadReckoning();
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+
+        assertFalse(deadReckoning.estimate(SECOND, estimate));
+    }
+
+    @Test
+    public void noEstimateWhenFixTooOld() {
+        DeadReckoning deadReckoning = new DeadReckoning();
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+        deadReckoning.onGpsFix(SECOND, 51.95, 4.05, 5, true, 10, true, 0);
+
+        assertTrue(deadReckoning.estimate(2 * SECOND, estimate));
+        assertFalse(deadReckoning.estimate(SECOND + DeadReckoning.MAX_ESTIMATE_AGE_NANOS + 1, estimate));
+    }
+
+    @Test
+    public void holdsSpeedAndBearingWithoutSensors() {
+        DeadReckoning deadReckoning = new DeadReckoning();
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+        deadReckoning.onGpsFix(0, 51.95, 4.05, 5, true, 10, true, 0);
+
+        assertTrue(deadReckoning.estimate(10 * SECOND, estimate));
+        assertEquals(100, distanceMeters(51.95, 4.05, estimate.getLatitude(), estimate.getLongitude()), 0.5);
+        assertTrue(estimate.getLatitude() > 51.95);
+        assertEquals(4.05, estimate.getLongitude(), 1e-9);
+        assertEquals(15, estimate.getAccuracy(), 0.1);
+        assertTrue(estimate.isInterpolated());
+    }
+
+    @Test
+    public void stationaryVehicleDoesNotDrift() {
+        DeadReckoning deadReckoning = new DeadReckoning();
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+        deadReckoning.onGpsFix(0, 51.95, 4.05, 5, true, 10, true, 90);
+
+        // Parked with the engine off: gravity only
+        for (long t = 0; t <= 20 * SECOND; t += SECOND / 50) {
+            deadReckoning.addAccelerometer(t, 0, 0, 9.81f);
+            deadReckoning.addGyroscope(t, 0, 0, 0);
+        }
+
+        assertTrue(deadReckoning.estimate(20 * SECOND, estimate));
+        assertTrue(deadReckoning.isStationary());
+        assertTrue(distanceMeters(51.95, 4.05, estimate.getLatitude(), estimate.getLongitude()) < 1);
+    }
+
+    @Test
+    public void gyroscopeTurnChangesHeading() {
+        DeadReckoning deadReckoning = new DeadReckoning();
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+        deadReckoning.addAccelerometer(0, 0, 0, 9.81f);
+        deadReckoning.onGpsFix(0, 51.95, 4.05, 5, true, 10, true, 0);
+
+        // Turn right by 90 degrees during the first second, phone lying flat
+        for (long t = 0; t <= 10 * SECOND; t += SECOND / 50) {
+            deadReckoning.addAccelerometer(t, 0, 0, (t / (SECOND / 50)) % 2 == 0 ? 10.31f : 9.31f);
+            deadReckoning.addGyroscope(t, 0, 0, t <= SECOND ? (float) (-Math.PI / 2) : 0);
+        }
+
+        assertTrue(deadReckoning.estimate(10 * SECOND, estimate));
+        // Roughly 90 m east of the start after the turn
+        assertTrue(estimate.getLongitude() > 4.05);
+        assertEquals(51.95, estimate.getLatitude(), 0.0002);
+    }
+
+    @Test
+    public void samplesAndEstimatesDoNotAllocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        DeadReckoning deadReckoning = new DeadReckoning(64);
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+        deadReckoning.onGpsFix(0, 51.95, 4.05, 5, true, 10, true, 45);
+        feedAndEstimate(deadReckoning, estimate, 0, 1000);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        feedAndEstimate(deadReckoning, estimate, 1000, 100_000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Leave headroom for the measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void feedTurnSample(DeadReckoning deadReckoning, long t) {
+        deadReckoning.addAccelerometer(t, 0, 0, (t / (SECOND / 50)) % 2 == 0 ? 10.31f : 9.31f);
+        deadReckoning.addGyroscope(t, 0, 0, t > SECOND && t <= 2 * SECOND ? (float) (-Math.PI / 2) : 0);
+    }
+
+    private static void feedAndEstimate(DeadReckoning deadReckoning, DeadReckoning.Estimate estimate,
+                                        int from, int to) {
+        for (int i = from; i < to; i++) {
+            long t = i * (SECOND / 1000);
+            deadReckoning.addAccelerometer(t, 0, 0, i % 2 == 0 ? 10.31f : 9.31f);
+            deadReckoning.addGyroscope(t, 0, 0, 0.01f);
+            deadReckoning.addMagnetometer(t, 0, 20, -40);
+            if (i % 100 == 0) {
+                deadReckoning.estimate(t, estimate);
+            }
+        }
+    }
+
+    /*
+     * Trace replay. Lines are "type,timestampNanos,values..." with types acc, gyr and mag for
+     * sensor samples, gps for location fixes (lat, lng, accuracy, speed, bearing) and truth for
+     * the ground-truth position (lat, lng). Fixes are filtered the way LocationService does, and
+     * every dropped fix is replaced by an estimate that is compared against the truth at the
+     * estimate's time. With a batch interval, sensor samples are held back and delivered
+     * together like a sensor FIFO, after fixes that are newer than them, and estimates only
+     * reach as far as the delivered samples.
+     */
+    private static TraceResult replay(String resource, long batchNanos) throws Exception {
+        List<String[]> lines = readTrace(resource);
+        List<long[]> truthTimes = new ArrayList<>();
+        List<double[]> truthPositions = new ArrayList<>();
+        for (String[] fields : lines) {
+            if (fields[0].equals("truth")) {
+                truthTimes.add(new long[]{Long.parseLong(fields[1])});
+                truthPositions.add(new double[]{Double.parseDouble(fields[2]), Double.parseDouble(fields[3])});
+            }
+        }
+
+        DeadReckoning deadReckoning = new DeadReckoning();
+        DeadReckoning.Estimate estimate = new DeadReckoning.Estimate();
+        TraceResult result = new TraceResult();
+        List<String[]> pendingSamples = new ArrayList<>();
+        long batchDeadline = Long.MIN_VALUE;
+        boolean inGap = false;
+
+        for (String[] fields : lines) {
+            long timestamp = Long.parseLong(fields[1]);
+            if (batchDeadline == Long.MIN_VALUE) {
+                batchDeadline = timestamp + batchNanos;
+            }
+            if (timestamp >= batchDeadline) {
+                for (String[] sample : pendingSamples) {
+                    deliverSample(deadReckoning, sample);
+                }
+                pendingSamples.clear();
+                batchDeadline += batchNanos;
+            }
+
+            switch (fields[0]) {
+                case "acc":
+                case "gyr":
+                case "mag":
+                    if (batchNanos > 0) {
+                        pendingSamples.add(fields);
+                    } else {
+                        deliverSample(deadReckoning, fields);
+                    }
+                    break;
+                case "truth":
+                    break;
+                case "gps":
+                    float accuracy = Float.parseFloat(fields[4]);
+                    boolean accurate = LocationIngestor.isAccurateEnough(true, accuracy);
+                    if (accurate && !inGap) {
+                        // Regular fix; no estimate needed
+                    } else {
+                        long estimateTime = batchNanos > 0
+                                ? Math.min(timestamp, deadReckoning.getSampledUntilNanos())
+                                : timestamp;
+                        if (deadReckoning.estimate(estimateTime, estimate)) {
+                            double[] truth = truthAt(truthTimes, truthPositions, estimateTime);
+                            double error = distanceMeters(truth[0], truth[1],
+                                    estimate.getLatitude(), estimate.getLongitude());
+                            if (accurate) {
+                                result.exitErrorMeters = error;
+                            } else {
+                                result.estimates++;
+                                result.maxErrorMeters = Math.max(result.maxErrorMeters, error);
+                            }
+                        }
+                    }
+                    inGap = !accurate;
+                    if (accurate) {
+                        deadReckoning.onGpsFix(timestamp, Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                                accuracy, true, Float.parseFloat(fields[5]), true, Float.parseFloat(fields[6]));
+                    }
+                    break;
+                default:
+                    fail("Unknown trace line: " + String.join(",", fields));
+            }
+        }
+        return result;
+    }
+
+    private static List<String[]> readTrace(String resource) throws Exception {
+        InputStream stream = DeadReckoningTest.class.getResourceAsStream(resource);
+        assertNotNull("Missing trace " + resource, stream);
+        List<String[]> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(line.split(","));
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static void deliverSample(DeadReckoning deadReckoning, String[] fields) {
+        long timestamp = Long.parseLong(fields[1]);
+        float x = Float.parseFloat(fields[2]);
+        float y = Float.parseFloat(fields[3]);
+        float z = Float.parseFloat(fields[4]);
+        switch (fields[0]) {
+            case "acc":
+                deadReckoning.addAccelerometer(timestamp, x, y, z);
+                break;
+            case "gyr":
+                deadReckoning.addGyroscope(timestamp, x, y, z);
+                break;
+            default:
+                deadReckoning.addMagnetometer(timestamp, x, y, z);
+                break;
+        }
+    }
+
+    // Ground truth linearly interpolated between the recorded positions
+    private static double[] truthAt(List<long[]> times, List<double[]> positions, long timestamp) {
+        for (int i = 1; i < times.size(); i++) {
+            long end = times.get(i)[0];
+            if (timestamp <= end) {
+                long start = times.get(i - 1)[0];
+                double f = (double) (timestamp - start) / (end - start);
+                double[] a = positions.get(i - 1);
+                double[] b = positions.get(i);
+                return new double[]{a[0] + f * (b[0] - a[0]), a[1] + f * (b[1] - a[1])};
+            }
+        }
+        return positions.get(positions.size() - 1);
+    }
+
+    private static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double north = Math.toRadians(lat2 - lat1) * EARTH_RADIUS_M;
+        double east = Math.toRadians(lng2 - lng1) * EARTH_RADIUS_M * Math.cos(Math.toRadians(lat1));
+        return Math.hypot(east, north);
+    }
+
+    private static class TraceResult {
+        int estimates;
+        double maxErrorMeters;
+        double exitErrorMeters;
+    }
+}
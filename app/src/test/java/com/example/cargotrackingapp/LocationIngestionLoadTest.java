@@ -0,0 +1,535 @@
+package com.example.cargotrackingapp;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load test for the location ingestion path: many virtual devices run the same
+ * validate-and-save logic as {@link LocationService} concurrently against an in-process fake of
+ * the Firestore backend: one write per accurate fix, and one dead-reckoned estimate in place of
+ * each inaccurate fix. Each device batches its writes through its own
+ * {@link BatchingLocationStore}, as the service does.
+ *
+ * The fake serves each commit as one request on a fixed pool of workers with a fixed latency,
+ * and limits documents per second on the collection the way Firestore limits writes to a
+ * collection with a monotonically increasing indexed field such as {@code timestamp}. Sustained
+ * throughput therefore depends on the batch size and flush interval being sized.
+ *
+ * Skipped unless {@code -Dloadtest.enabled=true} is given, since it takes wall-clock time and
+ * asserts on throughput. Run and size it with e.g.
+ * {@code ./gradlew testDebugUnitTest -Dloadtest.enabled=true -Dloadtest.devices=10000 -Dloadtest.batchSize=10}.
+ */
+public class LocationIngestionLoadTest {
+
+    private static final int DEVICES = Integer.getInteger("loadtest.devices", 2000);
+    private static final long FIX_INTERVAL_MS = Long.getLong("loadtest.fixIntervalMs", 1000);
+    private static final long DURATION_MS = Long.getLong("loadtest.durationMs", 3000);
+    private static final int CLIENT_THREADS = Integer.getInteger("loadtest.clientThreads", 32);
+    private static final int BACKEND_WORKERS = Integer.getInteger("loadtest.backendWorkers", 64);
+    // Round trip of one commit, however many documents it holds
+    private static final long BACKEND_LATENCY_MS = Long.getLong("loadtest.backendLatencyMs", 5);
+    private static final int BATCH_SIZE = Integer.getInteger("loadtest.batchSize", 1);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("loadtest.flushIntervalMs", 10000);
+    // Firestore's write limit for a collection with a sequentially increasing indexed field
+    private static final long SEQUENTIAL_INDEX_WRITES_PER_SECOND =
+            Long.getLong("loadtest.sequentialIndexWritesPerSecond", 500);
+    // Firestore rejects commits with more writes than this
+    private static final int MAX_BATCH_WRITES = 500;
+    // Share of fixes that LocationService replaces with a dead-reckoned estimate
+    private static final double INACCURATE_FIX_RATIO = 0.05;
+    // Estimates are accurate to within a few tens of meters over a short gap
+    private static final float ESTIMATE_ACCURACY_METERS = 30;
+    private static final long BACKLOG_SAMPLE_INTERVAL_MS = 100;
+
+    @Before
+    public void requireOptIn() {
+        Assume.assumeTrue(Boolean.getBoolean("loadtest.enabled"));
+    }
+
+    @Test
+    public void unthrottledBackendKeepsUpWithFleet() throws Exception {
+        // As if timestamp were exempt from indexing, so only workers and latency limit writes
+        RunSettings settings = new RunSettings();
+        settings.sequentialIndexWritesPerSecond = 0;
+        LoadReport report = run(settings);
+        System.out.println("Unthrottled: " + report);
+
+        assertTrue("No fixes were written", report.completedWrites > 0);
+        assertEquals(report.fixWrites + report.estimateWrites, report.storedDocuments);
+        assertTrue("No estimates were written", report.estimateWrites > 0);
+        assertTrue("Backend fell behind: " + report,
+                report.writesPerSecond >= 0.8 * report.offeredWritesPerSecond());
+        assertTrue("Backlog kept growing: " + report,
+                report.backlogGrowthPerSecond < 0.1 * report.offeredWritesPerSecond());
+    }
+
+    @Test
+    public void throttledBackendBuildsBacklog() throws Exception {
+        RunSettings settings = new RunSettings();
+        settings.sequentialIndexWritesPerSecond = 0;
+        settings.throttleWritesPerSecond = Math.max(1, fleetWritesPerSecond() / 2);
+
+        LoadReport report = run(settings);
+        System.out.println("Throttled to " + settings.throttleWritesPerSecond + " writes/s: " + report);
+
+        assertTrue("Throttle not enforced: " + report,
+                report.writesPerSecond <= settings.throttleWritesPerSecond * 1.2);
+        assertTrue("Backlog did not grow: " + report, report.backlogGrowthPerSecond > 0);
+        assertTrue(report.maxBacklog > 0);
+    }
+
+    @Test
+    public void sequentialIndexLimitsWritesRegardlessOfBatching() throws Exception {
+        Assume.assumeTrue("Fleet too small to hit the index limit",
+                fleetWritesPerSecond() > 2 * SEQUENTIAL_INDEX_WRITES_PER_SECOND);
+
+        RunSettings unbatched = new RunSettings();
+        unbatched.batchSize = 1;
+        LoadReport unbatchedReport = run(unbatched);
+        System.out.println("Sequential index, unbatched: " + unbatchedReport);
+
+        RunSettings batched = new RunSettings();
+        batched.batchSize = MAX_BATCH_WRITES;
+        batched.flushIntervalMs = FIX_INTERVAL_MS / 2;
+        LoadReport batchedReport = run(batched);
+        System.out.println("Sequential index, batched: " + batchedReport);
+
+        // The limit is on documents, so fewer, larger commits do not get past it
+        for (LoadReport report : new LoadReport[]{unbatchedReport, batchedReport}) {
+            assertTrue("Index limit not enforced: " + report,
+                    report.writesPerSecond <= SEQUENTIAL_INDEX_WRITES_PER_SECOND * 1.2);
+            assertTrue("Backlog did not grow: " + report, report.backlogGrowthPerSecond > 0);
+        }
+    }
+
+    @Test
+    public void batchingRaisesThroughputOfRequestBoundBackend() throws Exception {
+        // Just enough workers for a quarter of the fleet's commits at one write per commit
+        int workers = (int) Math.max(1, fleetWritesPerSecond() * BACKEND_LATENCY_MS / 1000 / 4);
+
+        RunSettings unbatched = new RunSettings();
+        unbatched.sequentialIndexWritesPerSecond = 0;
+        unbatched.backendWorkers = workers;
+        unbatched.batchSize = 1;
+        LoadReport unbatchedReport = run(unbatched);
+        System.out.println("Request bound, unbatched: " + unbatchedReport);
+
+        // Two fixes per commit
+        RunSettings batched = new RunSettings();
+        batched.sequentialIndexWritesPerSecond = 0;
+        batched.backendWorkers = workers;
+        batched.batchSize = MAX_BATCH_WRITES;
+        batched.flushIntervalMs = FIX_INTERVAL_MS / 2;
+        LoadReport batchedReport = run(batched);
+        System.out.println("Request bound, batched: " + batchedReport);
+
+        assertTrue("Batching did not help: " + batchedReport,
+                batchedReport.writesPerSecond > 1.5 * unbatchedReport.writesPerSecond);
+        assertTrue(batchedReport.commitsPerSecond < unbatchedReport.commitsPerSecond);
+    }
+
+    // Every fix turns into a write, either the fix itself or an estimate
+    private static long fleetWritesPerSecond() {
+        return Math.max(1, DEVICES * 1000L / FIX_INTERVAL_MS);
+    }
+
+    // Runs the fleet against the fake backend with the given settings
+    private LoadReport run(RunSettings settings) throws Exception {
+        FakeFirestore backend = new FakeFirestore(settings.backendWorkers, BACKEND_LATENCY_MS,
+                settings.throttleWritesPerSecond, settings.sequentialIndexWritesPerSecond);
+        LatencyRecorder latencies = new LatencyRecorder();
+        AtomicLong fixWrites = new AtomicLong();
+        AtomicLong estimateWrites = new AtomicLong();
+        AtomicLong rejectedFixes = new AtomicLong();
+        AtomicLong completedWrites = new AtomicLong();
+        AtomicLong failedWrites = new AtomicLong();
+
+        ScheduledExecutorService devices = Executors.newScheduledThreadPool(CLIENT_THREADS);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        List<long[]> backlogSamples = new ArrayList<>();
+        List<BatchingLocationStore> deviceStores = new ArrayList<>(DEVICES);
+
+        long start = System.nanoTime();
+        sampler.scheduleAtFixedRate(() -> {
+            synchronized (backlogSamples) {
+                backlogSamples.add(new long[]{System.nanoTime() - start, backend.backlog(),
+                        completedWrites.get(), backend.commits()});
+            }
+        }, 0, BACKLOG_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < DEVICES; i++) {
+            VirtualDevice device = new VirtualDevice(i);
+            BatchingLocationStore store = new BatchingLocationStore(backend,
+                    settings.batchSize, settings.flushIntervalMs, () -> System.nanoTime() / 1_000_000L);
+            LocationIngestor ingestor = new LocationIngestor(store);
+            deviceStores.add(store);
+            long initialDelay = (long) (Math.random() * FIX_INTERVAL_MS);
+            devices.scheduleAtFixedRate(() -> {
+                device.nextFix();
+                long submitted = System.nanoTime();
+                LocationIngestor.WriteCallback callback = new LocationIngestor.WriteCallback() {
+                    @Override
+                    public void onSuccess(String documentId) {
+                        latencies.record(System.nanoTime() - submitted);
+                        completedWrites.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        failedWrites.incrementAndGet();
+                    }
+                };
+                long timestamp = System.currentTimeMillis();
+                LocationIngestor.Result result = ingestor.ingest(device.latitude, device.longitude,
+                        true, device.accuracy, timestamp, callback);
+                switch (result) {
+                    case SAVED:
+                        fixWrites.incrementAndGet();
+                        break;
+                    case INACCURATE:
+                        // LocationService saves a dead-reckoned position instead; the device's
+                        // true position stands in for it
+                        ingestor.saveEstimate(device.latitude, device.longitude, timestamp,
+                                ESTIMATE_ACCURACY_METERS, callback);
+                        estimateWrites.incrementAndGet();
+                        break;
+                    default:
+                        rejectedFixes.incrementAndGet();
+                        break;
+                }
+            }, initialDelay, FIX_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        Thread.sleep(DURATION_MS);
+        devices.shutdownNow();
+        devices.awaitTermination(5, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        long completedInWindow = completedWrites.get();
+        long submittedInWindow = backend.submittedDocuments();
+        sampler.shutdownNow();
+
+        LoadReport report = new LoadReport();
+        report.settings = settings;
+        report.elapsedSeconds = elapsed / 1e9;
+        report.fixWrites = fixWrites.get();
+        report.estimateWrites = estimateWrites.get();
+        report.rejectedFixes = rejectedFixes.get();
+        report.submittedWrites = submittedInWindow;
+        report.completedWrites = completedInWindow;
+        report.latencyP50Ms = latencies.percentile(0.50) / 1e6;
+        report.latencyP99Ms = latencies.percentile(0.99) / 1e6;
+        // Devices need one fix interval to start, plus a flush interval to fill their first batch
+        long warmUpNanos = TimeUnit.MILLISECONDS.toNanos(
+                FIX_INTERVAL_MS + (settings.batchSize > 1 ? settings.flushIntervalMs : 0));
+        if (warmUpNanos >= elapsed / 2) {
+            warmUpNanos = 0;
+        }
+        synchronized (backlogSamples) {
+            report.backlogGrowthPerSecond = slopePerSecond(backlogSamples, 1, 0);
+            report.writesPerSecond = slopePerSecond(backlogSamples, 2, warmUpNanos);
+            report.commitsPerSecond = slopePerSecond(backlogSamples, 3, warmUpNanos);
+            for (long[] sample : backlogSamples) {
+                report.maxBacklog = Math.max(report.maxBacklog, sample[1]);
+            }
+        }
+        report.endBacklog = backend.backlog();
+        for (BatchingLocationStore store : deviceStores) {
+            report.bufferedAtDevices += store.getBufferedWrites();
+        }
+
+        // Runs that keep up should drain, including what devices still buffer; the others are cut off
+        if (settings.throttleWritesPerSecond == 0 && settings.sequentialIndexWritesPerSecond == 0) {
+            for (BatchingLocationStore store : deviceStores) {
+                store.flush();
+            }
+            backend.awaitDrained(10, TimeUnit.SECONDS);
+        }
+        backend.shutdown();
+        report.failedWrites = failedWrites.get();
+        report.storedDocuments = backend.storedDocuments();
+        return report;
+    }
+
+    // Least-squares slope over time of one sampled value, ignoring samples before the given time
+    private static double slopePerSecond(List<long[]> samples, int column, long fromNanos) {
+        int n = 0;
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (long[] sample : samples) {
+            if (sample[0] < fromNanos) {
+                continue;
+            }
+            n++;
+            double x = sample[0] / 1e9;
+            double y = sample[column];
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        return denominator == 0 ? 0 : (n * sumXY - sumX * sumY) / denominator;
+    }
+
+    /**
+     * A device drifting around a port, occasionally reporting a fix too inaccurate to save.
+     */
+    private static class VirtualDevice {
+
+        private final Random random;
+        volatile double latitude;
+        volatile double longitude;
+        volatile float accuracy;
+
+        VirtualDevice(int id) {
+            random = new Random(id);
+            latitude = 51.9 + random.nextDouble() * 0.1;
+            longitude = 4.0 + random.nextDouble() * 0.1;
+        }
+
+        // Ticks of one device never overlap, but may run on different pool threads
+        synchronized void nextFix() {
+            latitude += (random.nextDouble() - 0.5) * 1e-4;
+            longitude += (random.nextDouble() - 0.5) * 1e-4;
+            accuracy = random.nextDouble() < INACCURATE_FIX_RATIO ? 150 : 5 + random.nextFloat() * 20;
+        }
+    }
+
+    /**
+     * In-process stand-in for Firestore: commits queue up and are served by a fixed pool of
+     * workers with a fixed latency per commit. Documents are rate limited on the collection by
+     * the sequential index limit and an optional throttle; 0 disables either.
+     */
+    private static class FakeFirestore implements BatchingLocationStore.BatchStore {
+
+        private final BlockingQueue<PendingCommit> queue = new LinkedBlockingQueue<>();
+        private final ExecutorService workers;
+        private final long latencyMs;
+        private final RateLimiter throttle;
+        private final RateLimiter sequentialIndex;
+        private final AtomicLong pendingDocuments = new AtomicLong();
+        private final AtomicLong submittedDocuments = new AtomicLong();
+        private final AtomicLong commits = new AtomicLong();
+        private final AtomicLong documentIds = new AtomicLong();
+
+        FakeFirestore(int workerCount, long latencyMs, long throttleWritesPerSecond,
+                      long sequentialIndexWritesPerSecond) {
+            this.latencyMs = latencyMs;
+            this.throttle = new RateLimiter(throttleWritesPerSecond);
+            this.sequentialIndex = new RateLimiter(sequentialIndexWritesPerSecond);
+            this.workers = Executors.newFixedThreadPool(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workers.execute(this::serve);
+            }
+        }
+
+        @Override
+        public void addAll(String collection, List<Map<String, Object>> documents,
+                           List<LocationIngestor.WriteCallback> callbacks) {
+            pendingDocuments.addAndGet(documents.size());
+            submittedDocuments.addAndGet(documents.size());
+            queue.offer(new PendingCommit(collection, documents, callbacks));
+        }
+
+        // Documents submitted but not yet written
+        long backlog() {
+            return pendingDocuments.get();
+        }
+
+        long submittedDocuments() {
+            return submittedDocuments.get();
+        }
+
+        long commits() {
+            return commits.get();
+        }
+
+        long storedDocuments() {
+            return documentIds.get();
+        }
+
+        void awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (backlog() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            workers.shutdownNow();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        private void serve() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    PendingCommit commit = queue.take();
+                    try {
+                        int size = commit.documents.size();
+                        long wait = Math.max(throttle.reserve(size), sequentialIndex.reserve(size));
+                        TimeUnit.NANOSECONDS.sleep(wait + TimeUnit.MILLISECONDS.toNanos(latencyMs));
+                        commits.incrementAndGet();
+                        write(commit);
+                    } finally {
+                        pendingDocuments.addAndGet(-commit.documents.size());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(PendingCommit commit) {
+            if (commit.documents.size() > MAX_BATCH_WRITES) {
+                Exception e = new IllegalArgumentException("Too many writes in one commit: " + commit.documents.size());
+                for (LocationIngestor.WriteCallback callback : commit.callbacks) {
+                    callback.onFailure(e);
+                }
+                return;
+            }
+            for (int i = 0; i < commit.documents.size(); i++) {
+                Map<String, Object> data = commit.documents.get(i);
+                LocationIngestor.WriteCallback callback = commit.callbacks.get(i);
+                if (!LocationIngestor.COLLECTION_LOCATIONS.equals(commit.collection)
+                        || !(data.get(LocationIngestor.FIELD_LATITUDE) instanceof Double)
+                        || !(data.get(LocationIngestor.FIELD_LONGITUDE) instanceof Double)
+                        || !(data.get(LocationIngestor.FIELD_TIMESTAMP) instanceof Long)) {
+                    callback.onFailure(new IllegalArgumentException("Malformed location: " + data));
+                } else {
+                    callback.onSuccess("doc-" + documentIds.incrementAndGet());
+                }
+            }
+        }
+    }
+
+    /**
+     * Spaces documents evenly at a maximum rate.
+     */
+    private static class RateLimiter {
+
+        private final long intervalNanos;
+        private long nextSlot = 0;
+
+        RateLimiter(long permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond > 0 ? 1_000_000_000L / permitsPerSecond : 0;
+        }
+
+        // Nanoseconds to wait before the given number of documents may be written
+        synchronized long reserve(int permits) {
+            if (intervalNanos == 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextSlot);
+            nextSlot = slot + permits * intervalNanos;
+            return nextSlot - intervalNanos - now;
+        }
+    }
+
+    private static class PendingCommit {
+
+        final String collection;
+        final List<Map<String, Object>> documents;
+        final List<LocationIngestor.WriteCallback> callbacks;
+
+        PendingCommit(String collection, List<Map<String, Object>> documents,
+                      List<LocationIngestor.WriteCallback> callbacks) {
+            this.collection = collection;
+            this.documents = documents;
+            this.callbacks = callbacks;
+        }
+    }
+
+    private static class LatencyRecorder {
+
+        private final List<Long> samples = new ArrayList<>();
+
+        synchronized void record(long nanos) {
+            samples.add(nanos);
+        }
+
+        synchronized double percentile(double p) {
+            if (samples.isEmpty()) {
+                return 0;
+            }
+            long[] sorted = new long[samples.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+
+    private static class RunSettings {
+
+        long throttleWritesPerSecond = 0;
+        long sequentialIndexWritesPerSecond = SEQUENTIAL_INDEX_WRITES_PER_SECOND;
+        int backendWorkers = BACKEND_WORKERS;
+        int batchSize = BATCH_SIZE;
+        long flushIntervalMs = FLUSH_INTERVAL_MS;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "devices=%d, batch=%d, flush=%dms, workers=%d, throttle=%d/s, index limit=%d/s",
+                    DEVICES, batchSize, flushIntervalMs, backendWorkers,
+                    throttleWritesPerSecond, sequentialIndexWritesPerSecond);
+        }
+    }
+
+    private static class LoadReport {
+
+        RunSettings settings;
+        double elapsedSeconds;
+        long fixWrites;
+        long estimateWrites;
+        long rejectedFixes;
+        long submittedWrites;
+        long completedWrites;
+        long failedWrites;
+        long storedDocuments;
+        long bufferedAtDevices;
+        double writesPerSecond;
+        double commitsPerSecond;
+        double latencyP50Ms;
+        double latencyP99Ms;
+        double backlogGrowthPerSecond;
+        long maxBacklog;
+        long endBacklog;
+
+        // Documents the devices committed to the backend, excluding what they still buffer
+        double offeredWritesPerSecond() {
+            return submittedWrites / elapsedSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s, elapsed=%.1fs, fixes=%d, estimates=%d, rejected=%d, offered=%.0f/s, "
+                            + "sustained=%.0f writes/s in %.0f commits/s, p50=%.1fms, p99=%.1fms, "
+                            + "backlog growth=%.0f/s, max backlog=%d, end backlog=%d, "
+                            + "buffered at devices=%d, failed=%d",
+                    settings, elapsedSeconds, fixWrites, estimateWrites, rejectedFixes,
+                    offeredWritesPerSecond(), writesPerSecond, commitsPerSecond, latencyP50Ms, latencyP99Ms,
+                    backlogGrowthPerSecond, maxBacklog, endBacklog, bufferedAtDevices, failedWrites);
+        }
+    }
+}